@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim;
+
+/*
+ * Measure how fast the network is stepped, in cycles per second, for a run mode 
+ * configuration: <configuration.cfg> [cycles] [runs]. Each run steps the network 
+ * from reset for the same cycles, after a first run that warms up the JIT. By 
+ * default a run is as long as the sampling of the configuration
+ */
+public class Benchmark {
+	
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.out.println("benchmark: <configuration.cfg> [cycles] [runs]\n");
+			System.exit(1);
+		}
+		
+		Config.init(args[0]);
+		if(!Config.runMode()) {
+			System.err.println("Error: a benchmark needs a run mode configuration");
+			System.exit(1);
+		}
+		int cycles = args.length > 1 ? Integer.parseInt(args[1]) : Config.samplePeriod() * Config.numSamples();
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		
+		Simulator.init();
+		Simulator.getNetwork().initRouting();
+		
+		double total = 0;
+		for(int i=0; i<=runs; i++) {
+			Simulator.reset();
+			long start = System.nanoTime();
+			Simulator.run(cycles);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("%-8s%d cycles in %.3f s: %.0f cycles/s", 
+					i == 0 ? "Warm up" : "Run "+i, cycles, seconds, cycles / seconds));
+			if(i > 0)
+				total += seconds;
+		}
+		if(runs > 0)
+			System.out.println(String.format("Average %.0f cycles/s", runs * cycles / total));
+		Simulator.shutdown();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim;
+
+/*
+ * A cycle count that components hold on to rather than look up each time they
+ * stamp a signal or a packet. The simulator has the global clock, and an engine
+ * that advances partitions of the network ahead of it within a window gives the
+ * nodes of each partition a clock of their own. A clock is only advanced by the
+ * one thread that steps the components holding it.
+ */
+public final class Clock {
+
+	private long m_cycle;
+
+	public long now()               { return m_cycle; }
+	public void set(long cycle)     { m_cycle = cycle; }
+	public void advance(int cycles) { m_cycle += cycles; }
+}
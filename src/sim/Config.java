@@ -12,6 +12,8 @@ import java.text.Format;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -55,20 +57,34 @@ public class Config {
 		ONOFF,
 		TRACE
 	}
+	public enum EngineType {
+		SERIAL,
+		PARALLEL,
+		PDES,
+		STEALING,
+		DISTRIBUTED,
+		COMPILED
+	}
 	
 	// Parameter map
-	private static Map<String, Object> m_params;
-	private static String              m_date;
-	private Config() {}
+	private Map<String, Object> m_params;
+	private String              m_date;
+	private String              m_filename;
+	private List<String>        m_args;
+	private SimConfig           m_snapshot;
+	Config() {}
 	
 	public static void init(String filename) {
+		Config config = current();
 		
-		m_params = new HashMap<String, Object>();
+		config.m_params = new HashMap<String, Object>();
+		config.m_filename = filename;
+		config.m_args = new LinkedList<String>();
 		setDefaultParams();
 		
 		// Set file suffix
 		Format formatter = new SimpleDateFormat("[ss-mm-HH-dd-MM]");
-		m_date = formatter.format(new Date());
+		config.m_date = formatter.format(new Date());
 		
 		// Load the configuration file into a properties object
 		Properties properties = new Properties();
@@ -89,6 +105,7 @@ public class Config {
 		    	readRoutingParams(properties);
 		    	readTrafficParams(properties);
 		    	readNetworkParams(properties);
+		    	readEngineParams(properties);
 		    	readRunSimParams(properties);
 		    	break;
 		    case DEBUG:
@@ -104,6 +121,7 @@ public class Config {
 		    default:
 		    	System.err.println("Error: no run mode found in config");
 		    }
+		    compile();
 	    } catch (NullPointerException e1) {
 	    	System.err.println("Error: missing parameter "+e1.getMessage());
 	    	System.exit(1);
@@ -215,8 +233,6 @@ public class Config {
 			case ONOFF:
 				getDubProperty(properties, "burst_alpha");
 				getDubProperty(properties, "burst_beta");
-				if(getDubParam("burst_alpha") + getDubParam("burst_beta") != 1)
-					throw new Exception("Invalid alpha and beta burst values");
 				getDubProperty(properties, "injection_rate");
 				getDubProperty(properties, "injection_step");
 				break;
@@ -230,6 +246,7 @@ public class Config {
 		
 		// Get other traffic parameters
 		getIntProperty(properties, "flits_per_packet");
+		getIntProperty(properties, "source_queue");
 	}
 	
 	private static void readNetworkParams(Properties properties) 
@@ -240,6 +257,62 @@ public class Config {
 		getIntProperty(properties,  "buffer_size");
 		getIntProperty(properties,  "link_delay");
 		getSeedProperty(properties, "rand_seed");
+		getBoolProperty(properties, "packet_granularity");
+	}
+
+	/*
+	 * The engine only changes how the network is stepped, not the results. Debug 
+	 * mode always uses the serial engine as the consoles are not thread safe
+	 */
+	private static void readEngineParams(Properties properties)
+	throws NumberFormatException, Exception {
+		getBoolProperty(properties, "active_set");
+		getBoolProperty(properties, "fast_forward");
+		if(properties.containsKey("engine")) {
+			EngineType engine = engineType(properties.getProperty("engine"));
+			if(engine == null)
+				throw new Exception("invalid 'engine' key value");
+			setParam("engine", engine);
+			switch(engine) {
+			case SERIAL:
+				break;
+			
+			case PARALLEL:
+			case PDES:
+			case STEALING:
+				getIntProperty(properties, "threads");
+				break;
+			
+			case DISTRIBUTED:
+				getIntProperty(properties, "threads");
+				getIntProperty(properties, "processes");
+				getIntProperty(properties, "port");
+				
+				// The processes would need to agree on when the network is empty
+				setParam("fast_forward", false);
+				break;
+			
+			case COMPILED:
+				// The routers are stepped together in flat loops, so none can be skipped
+				setParam("active_set", false);
+				getBoolProperty(properties, "off_heap");
+				break;
+			
+			default:
+				throw new Exception("invalid 'engine' key value");
+			}
+		}
+	}
+
+	/*
+	 * The engine with a name, or null if there is none, so that a misspelt name 
+	 * is reported like any other invalid value
+	 */
+	private static EngineType engineType(String name) {
+		for(EngineType engine : EngineType.values())
+			if(engine.name().equalsIgnoreCase(name.trim()))
+				return engine;
+		return null;
 	}
 
 	private static void readDebugSimParams(Properties properties) 
@@ -283,6 +356,17 @@ public class Config {
 		setParam("available_vcs",     3);
 		setParam("buffer_size",       5);
 		setParam("link_delay",        4);
+		setParam("packet_granularity", false);
+		
+		// Engine
+		setParam("engine",            EngineType.SERIAL);
+		setParam("threads",           0);
+		setParam("active_set",        false);
+		setParam("fast_forward",      false);
+		setParam("off_heap",          false);
+		setParam("processes",         1);
+		setParam("rank",              0);
+		setParam("port",              47000);
 		
 		// Simulation
 		setParam("max_msgs",          1000);
@@ -299,6 +383,7 @@ public class Config {
 		// Traffic
 		setParam("traffic_pattern",   TrafficType.UNIFORM);
 		setParam("flits_per_packet",  20);
+		setParam("source_queue",      0);
 		setParam("trace_file",        "");
 		setParam("injection_rate",    0.1);
 		setParam("injection_step",    0.01);
@@ -310,25 +395,36 @@ public class Config {
 	
 	private static void getIntProperty(Properties properties, String key) 
 	throws NumberFormatException {
-		if(!m_params.containsKey(key))
+		Config config = current();
+		if(!config.m_params.containsKey(key))
 			System.err.println("Error: missing key "+key);
 		if(properties.containsKey(key))
-			m_params.put(key, Integer.parseInt(properties.getProperty(key)));
+			config.m_params.put(key, Integer.parseInt(properties.getProperty(key)));
 	}
 	
 	private static void getDubProperty(Properties properties, String key) 
 	throws NumberFormatException {
-		if(!m_params.containsKey(key))
+		Config config = current();
+		if(!config.m_params.containsKey(key))
 			System.err.println("Error: missing key "+key);
 		if(properties.containsKey(key))
-			m_params.put(key, Double.parseDouble(properties.getProperty(key)));
+			config.m_params.put(key, Double.parseDouble(properties.getProperty(key)));
+	}
+	
+	private static void getBoolProperty(Properties properties, String key) {
+		Config config = current();
+		if(!config.m_params.containsKey(key))
+			System.err.println("Error: missing key "+key);
+		if(properties.containsKey(key))
+			config.m_params.put(key, Boolean.parseBoolean(properties.getProperty(key).trim()));
 	}
 	
 	private static void getStrProperty(Properties properties, String key) {
-		if(!m_params.containsKey(key))
+		Config config = current();
+		if(!config.m_params.containsKey(key))
 			System.err.println("Error: missing key "+key);
 		if(properties.containsKey(key))
-			m_params.put(key, properties.getProperty(key));
+			config.m_params.put(key, properties.getProperty(key));
 	}
 	
 	private static void getSeedProperty(Properties properties, String key) {
@@ -340,26 +436,49 @@ public class Config {
 	}
 	
 	private static void setParam(String key, Object value) {
-		m_params.put(key, value);
+		current().m_params.put(key, value);
 	}
 	
-	private static int getIntParam(String key) {
-		return ((Integer) m_params.get(key)).intValue();
+	/*
+	 * Compile the parameters into a new snapshot, which validates them
+	 */
+	private static void compile() throws Exception {
+		Config config = current();
+		config.m_snapshot = new SimConfig(config.m_params);
+	}
+	
+	/*
+	 * Compile the snapshot again once a parameter has been set after the 
+	 * configuration was read
+	 */
+	private static void recompile() {
+		try {
+			compile();
+		} catch (Exception e) {
+			System.err.println("Error: "+e.getMessage());
+			System.exit(1);
+		}
 	}
 	
-	private static double getDubParam(String key) {
-		return ((Double) m_params.get(key)).doubleValue();
+	/*
+	 * The compiled parameters, for components to keep and read on every cycle
+	 */
+	public static SimConfig snapshot() {
+		return current().m_snapshot;
 	}
 	
-	private static long getLngParam(String key) {
-		return ((Long) m_params.get(key)).longValue();
+	private static int getIntParam(String key) {
+		return ((Integer) current().m_params.get(key)).intValue();
 	}
 	
-	private static String getStrParam(String key) {
-		return (String) m_params.get(key);
+	private static long getLngParam(String key) {
+		return ((Long) current().m_params.get(key)).longValue();
 	}
 	
 	public static void setArgParam(String key, String value) {
+		Config config = current();
+		
+		config.m_args.add(key+"="+value);
 		
 		if(key.equals("traffic_pattern")) {
 			setParam(key, TrafficType.valueOf(value.toUpperCase()));
@@ -392,10 +511,21 @@ public class Config {
 		else if(key.equals("steps")) {
 			setParam(key, Integer.parseInt(value));
 		}
+		
+		else if(key.equals("rank")) {
+			setParam(key, Integer.parseInt(value));
+		}
+		
+		else if(key.equals("rand_seed")) {
+			setParam(key, Long.parseLong(value));
+		}
+		
+		recompile();
 	}
 	
 	public static void setRouting(RoutingType routing) {
 		setParam("routing", routing);
+		recompile();
 	}
 	
 	public static String dumpConfig() {
@@ -417,6 +547,16 @@ public class Config {
 		s += "  Num virtual channels:    "+numVCs()+"\n";
 		s += "  Buffer size:             "+bufferSize()+"\n";
 		s += "  Link delay:              "+linkDelay()+"\n";
+		s += "  Packet granularity:      "+packetGranularity()+"\n";
+		s += "[ENGINE]===========================================\n";
+		s += "  Engine:                  "+engine()+"\n";
+		s += "  Threads:                 "+numThreads()+"\n";
+		if(engine() == EngineType.DISTRIBUTED)
+			s += "  Processes:               "+processes()+"\n";
+		s += "  Active set:              "+activeSet()+"\n";
+		s += "  Fast forward:            "+fastForward()+"\n";
+		if(engine() == EngineType.COMPILED)
+			s += "  Off heap:                "+offHeap()+"\n";
 		s += "[SIMULATION]=======================================\n";
 		s += "  Random seed:             "+seed()+"\n";
 		s += "  Num simulation runs      "+simRuns()+"\n";
@@ -432,6 +572,7 @@ public class Config {
 		s += "  Burst beta:              "+burstBeta()+"\n";
 		s += "  Packet injection rate:   "+injectionRate()+"\n";
 		s += "  Const flits per packet:  "+packetSize()+"\n";
+		s += "  Source queue (packets):  "+sourceQueue()+"\n";
 		s += "---------------------------------------------------\n";
 		return s;
 	}
@@ -453,6 +594,7 @@ public class Config {
 		s += "  Perm seed:               "+permSeed()+"\n";
 		s += "  Packet injection step:   "+injectionStep()+"\n";
 		s += "  Const flits per packet:  "+packetSize()+"\n";
+		s += "  Source queue (packets):  "+sourceQueue()+"\n";
 		s += "---------------------------------------------------\n";
 		return s;
 	}
@@ -472,57 +614,72 @@ public class Config {
 	}
 	
 	private static String dumpDebugConfig() {
+		Config config = current();
 		String s = "";
-		Set<String> keys = m_params.keySet();
+		Set<String> keys = config.m_params.keySet();
 		for(String key : keys) {
-			s += String.format("%-20s %-10s", key, m_params.get(key))+"\n";
+			s += String.format("%-20s %-10s", key, config.m_params.get(key))+"\n";
 		}
 		return s;
 	}
 	
-	public static Mode         mode()           { return (Mode) m_params.get("mode"); }
-	public static boolean      debugMode()      { return mode().equals(Mode.DEBUG); }
-	public static boolean      runMode()        { return mode().equals(Mode.RUN); }
-	public static TopologyType topology()       { return (TopologyType) m_params.get("topology"); }
-	public static RoutingType  routing()        { return (RoutingType) m_params.get("routing"); }
-	public static TrafficType  traffic()        { return (TrafficType) m_params.get("traffic_pattern"); }
-	public static InjProcess   injection()      { return (InjProcess) m_params.get("injection_process"); }
-	public static int          k()              { return getIntParam("k"); }
-	public static int          n()              { return getIntParam("n"); }
-	public static int          d()              { return getIntParam("d"); }
-	public static double       p()              { return getDubParam("p"); }
-	public static int          m()              { return getIntParam("m"); }
-	public static double       faults()         { return getDubParam("faults"); }
-	public static int          steps()          { return getIntParam("steps"); }
-	public static int          numNodes()       { return getIntParam("num_nodes"); }
-	public static String       traceFile()      { return getStrParam("trace_file"); }
-	public static double       injectionRate()  { return getDubParam("injection_rate"); }
-	public static double       injectionStep()  { return getDubParam("injection_step"); }
-	public static int          bufferSize()     { return getIntParam("buffer_size"); }
-	public static int          numVCs()         { return getIntParam("num_vcs"); }
-	public static int          availableVCs()   { return getIntParam("available_vcs"); }
-	public static int          maxCycles()      { return getIntParam("max_cycles"); }
-	public static int          maxMsgs()        { return getIntParam("max_msgs"); }
-	public static int          warmupPeriod()   { return getIntParam("warmup_period"); }
-	public static int          linkDelay()      { return getIntParam("link_delay"); }
-	public static int          packetSize()     { return getIntParam("flits_per_packet"); }
-	public static long         seed()           { return getLngParam("rand_seed"); }
-	public static int          samplePeriod()   { return getIntParam("sample_period"); }
-	public static int          numSamples()     { return getIntParam("num_samples"); }
-	public static int          latencyThresh()  { return getIntParam("latency_thresh"); }
-	public static int          simRuns()        { return getIntParam("sim_runs"); }
-	public static double       burstAlpha()     { return getDubParam("burst_alpha"); }
-	public static double       burstBeta()      { return getDubParam("burst_beta"); }
-	public static long         permSeed()       { return getLngParam("perm_seed"); }
-	public static double       warmupThresh()   { return getDubParam("warmup_thresh"); }
-	public static void         setInjRate(double rate) { setParam("injection_rate", rate); }
-	public static void         setInjStep(double step) { setParam("injection_step", step); }
+	public static Mode         mode()           { return snapshot().mode; }
+	public static boolean      debugMode()      { return snapshot().debug; }
+	public static boolean      runMode()        { return snapshot().run; }
+	public static TopologyType topology()       { return snapshot().topology; }
+	public static RoutingType  routing()        { return snapshot().routing; }
+	public static TrafficType  traffic()        { return snapshot().traffic; }
+	public static InjProcess   injection()      { return snapshot().injection; }
+	public static EngineType   engine()         { return snapshot().engine; }
+	public static int          k()              { return snapshot().k; }
+	public static int          n()              { return snapshot().n; }
+	public static int          d()              { return snapshot().d; }
+	public static double       p()              { return snapshot().p; }
+	public static int          m()              { return snapshot().m; }
+	public static double       faults()         { return snapshot().faults; }
+	public static int          steps()          { return snapshot().steps; }
+	public static int          numNodes()       { return snapshot().numNodes; }
+	public static String       traceFile()      { return snapshot().traceFile; }
+	public static double       injectionRate()  { return snapshot().injectionRate; }
+	public static double       injectionStep()  { return snapshot().injectionStep; }
+	public static int          bufferSize()     { return snapshot().bufferSize; }
+	public static int          numVCs()         { return snapshot().numVCs; }
+	public static int          availableVCs()   { return snapshot().availableVCs; }
+	public static int          maxCycles()      { return snapshot().maxCycles; }
+	public static int          maxMsgs()        { return snapshot().maxMsgs; }
+	public static int          warmupPeriod()   { return snapshot().warmupPeriod; }
+	public static int          linkDelay()      { return snapshot().linkDelay; }
+	public static int          threads()        { return snapshot().threads; }
+	public static boolean      activeSet()      { return snapshot().activeSet; }
+	public static boolean      fastForward()    { return snapshot().fastForward; }
+	public static boolean      offHeap()        { return snapshot().offHeap; }
+	public static boolean      packetGranularity() { return snapshot().packetGranularity; }
+	public static int          processes()      { return snapshot().processes; }
+	public static int          rank()           { return snapshot().rank; }
+	public static int          port()           { return snapshot().port; }
+	public static String       configFile()     { return current().m_filename; }
+	public static List<String> args()           { return current().m_args; }
+	public static int          packetSize()     { return snapshot().packetSize; }
+	public static int          sourceQueue()    { return snapshot().sourceQueue; }
+	public static long         seed()           { return snapshot().seed; }
+	public static int          samplePeriod()   { return snapshot().samplePeriod; }
+	public static int          numSamples()     { return snapshot().numSamples; }
+	public static int          latencyThresh()  { return snapshot().latencyThresh; }
+	public static int          simRuns()        { return snapshot().simRuns; }
+	public static double       burstAlpha()     { return snapshot().burstAlpha; }
+	public static double       burstBeta()      { return snapshot().burstBeta; }
+	public static long         permSeed()       { return snapshot().permSeed; }
+	public static double       warmupThresh()   { return snapshot().warmupThresh; }
+	public static void         setInjRate(double rate) { setParam("injection_rate", rate); recompile(); }
+	public static void         setInjStep(double step) { setParam("injection_step", step); recompile(); }
 	public static int          numLayers()      { return getIntParam("num_layers"); }
-	public static long         graphSeed()      { return getLngParam("graph_seed"); }
+	public static long         graphSeed()      { return snapshot().graphSeed; }
 	public static long         segSeed()        { return getLngParam("seg_seed"); }
-	public static String       date()           { return m_date; }
+	public static String       date()           { return current().m_date; }
 	public static void         setLayers(int layers) { setParam("num_layers", layers); }
-	public static void         setAvailableVCs(int vcs) { setParam("available_vcs", vcs); }
+	public static void         setAvailableVCs(int vcs) { setParam("available_vcs", vcs); recompile(); }
+	public static int          numThreads()     { return snapshot().numThreads(); }
+	
 	public static String routingName() {
 		switch(Config.routing()) {
 		case DOR:     return "DOR";
@@ -530,4 +687,6 @@ public class Config {
 		}
 		return null;
 	}
+	
+	private static Config current() { return SimulationContext.current().config(); }
 }
@@ -42,6 +42,7 @@ public class Main {
 		
 		RunMode.init();
 		RunMode.run();
+		Simulator.shutdown();
 	}
 	
 	private static String dumpUsage() {
@@ -56,7 +57,14 @@ public class Main {
 			System.out.println(dumpUsage());
 			System.exit(1);
 		}
-
+		start(args);
+	}
+	
+	/*
+	 * Configure and start a simulation in the context of the calling thread, so a 
+	 * sweep can run several at once with a SimulationContext for each
+	 */
+	public static void start(String[] args) {
 		Config.init(args[0]);
 		
 		switch(Config.mode()) {
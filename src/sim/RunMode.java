@@ -14,10 +14,10 @@ public class RunMode {
 	private static final boolean VERBOSE_EXPERIMENT = true;
 	private static final boolean VERBOSE_SIM_RUN = true;
 	
-	private static int m_runSampleCount;
-	private static int m_warmSampleCount;
+	private int m_runSampleCount;
+	private int m_warmSampleCount;
 	
-	private RunMode() {}
+	RunMode() {}
 
     /*
      * Initialise experiments
@@ -52,6 +52,8 @@ public class RunMode {
         Stats.newSimRun(0, Config.injectionRate());
         singleRun(VERBOSE_EXPERIMENT, 0);
 		vPrintLn(true, Stats.dumpInfo());
+		String engineInfo = Simulator.getNetwork().dumpEngineInfo();
+		vPrintLn(!engineInfo.isEmpty(), engineInfo);
         
         Stats.endExperiment();
 	}
@@ -80,23 +82,24 @@ public class RunMode {
 	 * Run a single simulation
 	 */
 	public static boolean singleRun(boolean v, int runNum) {
+		RunMode run = current();
 		
-		m_runSampleCount = 0;
-		m_warmSampleCount = 0;
+		run.m_runSampleCount = 0;
+		run.m_warmSampleCount = 0;
 		boolean converged = false;
 		Simulator.reset();
 		
 		//Simulator.setState(SimState.RUNNING);
-		while(m_runSampleCount < Config.numSamples()) {
+		while(run.m_runSampleCount < Config.numSamples()) {
 			
 			// Clear the recorded stats if necessary
 			Stats.newSamplePhase();
 			
 			// Execute simulation steps for the sample interval
-			for (int i = 0; i<Config.samplePeriod(); i++)
-				Simulator.step();
+			Simulator.run(Config.samplePeriod());
 			
 			// Calculate the latency and throughput values
+			Simulator.getNetwork().mergeStats();
 			Stats.calcSampleValues();
 			
 			// Check the latency
@@ -104,7 +107,7 @@ public class RunMode {
 				vPrintLn(v, String.format("\nAverage latency is getting huge %.2f, "+
 						"terminating simulation", Stats.currLatency()));
 				Simulator.setState(SimState.WARMING_UP);
-				m_runSampleCount = m_warmSampleCount = 0;
+				run.m_runSampleCount = run.m_warmSampleCount = 0;
 				converged = true;
 				break;
 			}
@@ -124,22 +127,22 @@ public class RunMode {
 							warmedUp(v);
 						break;*/
 					}
-				} else if(m_warmSampleCount*Config.samplePeriod() >= Config.warmupPeriod()) {
+				} else if(run.m_warmSampleCount*Config.samplePeriod() >= Config.warmupPeriod()) {
 					vPrintLn(v, "Warmed up after "+Simulator.clock()+" cycles");
 					Simulator.setState(SimState.RUNNING);
 				}
-				m_warmSampleCount++;
+				run.m_warmSampleCount++;
 				break;
 			
 			case RUNNING:				
 				vPrint(v, String.format("\r%-12s%-12s%-12s%-12s%-12s%-12s", 
-						m_runSampleCount, Stats.packetsGenerated(), Stats.packetsReceived(),
+						run.m_runSampleCount, Stats.packetsGenerated(), Stats.packetsReceived(),
 						(Stats.packetsGenerated()-Stats.packetsReceived()), 
 						String.format("%.2f", Stats.currLatency()),
 						String.format("%.2f", Stats.currThroughput())));
 
 				Stats.addSample();
-				m_runSampleCount++;
+				run.m_runSampleCount++;
 				break;
 			}
 		}
@@ -163,6 +166,7 @@ public class RunMode {
 		}
 		
 		// Add the extra latency samples
+		Simulator.getNetwork().mergeStats();
 		Stats.calcSampleValues();
 		Stats.addSample();
 		
@@ -180,7 +184,10 @@ public class RunMode {
 		Simulator.setState(SimState.RUNNING);
 	}
 
-	public  static int sampleNum() { return m_runSampleCount; }
+	public  int        getSampleNum() { return m_runSampleCount; }
+	public  static int sampleNum()    { return current().m_runSampleCount; }
 	private static void vPrint(boolean verbose, String s) { if(verbose) System.out.print(s); }
 	private static void vPrintLn(boolean verbose, String s) { if(verbose) System.out.println(s); }
+	
+	private static RunMode current() { return SimulationContext.current().runMode(); }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim;
+
+import java.util.Map;
+
+import sim.Config.EngineType;
+import sim.Config.InjProcess;
+import sim.Config.Mode;
+import sim.Config.RoutingType;
+import sim.Config.TopologyType;
+import sim.Config.TrafficType;
+
+/*
+ * The parameters of a simulation compiled from the parameter map of Config into 
+ * typed final fields, and validated, once the configuration has been read. It 
+ * is never changed: Config compiles a new one when a parameter is set, so that a 
+ * component can keep the one it was constructed with and read its fields on 
+ * every cycle without any map lookups, unboxing or enum comparisons
+ */
+public final class SimConfig {
+
+	// Mode
+	public final Mode         mode;
+	public final boolean      debug;
+	public final boolean      run;
+	
+	// Topology
+	public final TopologyType topology;
+	public final int          k;
+	public final int          n;
+	public final int          d;
+	public final double       p;
+	public final int          m;
+	public final double       faults;
+	public final int          steps;
+	public final int          numNodes;
+	public final long         graphSeed;
+	
+	// Routing
+	public final RoutingType  routing;
+	
+	// Network
+	public final int          numVCs;
+	public final int          availableVCs;
+	public final int          bufferSize;
+	public final int          linkDelay;
+	public final boolean      packetGranularity;
+	
+	// Engine
+	public final EngineType   engine;
+	public final int          threads;
+	public final boolean      activeSet;
+	public final boolean      fastForward;
+	public final boolean      offHeap;
+	public final int          processes;
+	public final int          rank;
+	public final int          port;
+	
+	// Simulation
+	public final int          maxMsgs;
+	public final int          maxCycles;
+	public final long         seed;
+	public final int          simRuns;
+	public final int          samplePeriod;
+	public final int          numSamples;
+	public final int          warmupPeriod;
+	public final int          latencyThresh;
+	public final double       warmupThresh;
+	
+	// Traffic
+	public final TrafficType  traffic;
+	public final boolean      trace;
+	public final String       traceFile;
+	public final int          packetSize;
+	public final int          sourceQueue;
+	public final double       injectionRate;
+	public final double       injectionStep;
+	public final InjProcess   injection;
+	public final double       burstAlpha;
+	public final double       burstBeta;
+	public final long         permSeed;
+	
+	SimConfig(Map<String, Object> params) throws Exception {
+		mode              = (Mode) params.get("mode");
+		debug             = mode == Mode.DEBUG;
+		run               = mode == Mode.RUN;
+		
+		topology          = (TopologyType) params.get("topology");
+		k                 = (Integer) params.get("k");
+		n                 = (Integer) params.get("n");
+		d                 = (Integer) params.get("d");
+		p                 = (Double) params.get("p");
+		m                 = (Integer) params.get("m");
+		faults            = (Double) params.get("faults");
+		steps             = (Integer) params.get("steps");
+		numNodes          = (Integer) params.get("num_nodes");
+		graphSeed         = (Long) params.get("graph_seed");
+		
+		routing           = (RoutingType) params.get("routing");
+		
+		numVCs            = (Integer) params.get("num_vcs");
+		availableVCs      = (Integer) params.get("available_vcs");
+		bufferSize        = (Integer) params.get("buffer_size");
+		linkDelay         = (Integer) params.get("link_delay");
+		packetGranularity = (Boolean) params.get("packet_granularity");
+		
+		engine            = (EngineType) params.get("engine");
+		threads           = (Integer) params.get("threads");
+		activeSet         = (Boolean) params.get("active_set");
+		fastForward       = (Boolean) params.get("fast_forward");
+		offHeap           = (Boolean) params.get("off_heap");
+		processes         = (Integer) params.get("processes");
+		rank              = (Integer) params.get("rank");
+		port              = (Integer) params.get("port");
+		
+		maxMsgs           = (Integer) params.get("max_msgs");
+		maxCycles         = (Integer) params.get("max_cycles");
+		seed              = (Long) params.get("rand_seed");
+		simRuns           = (Integer) params.get("sim_runs");
+		samplePeriod      = (Integer) params.get("sample_period");
+		numSamples        = (Integer) params.get("num_samples");
+		warmupPeriod      = (Integer) params.get("warmup_period");
+		latencyThresh     = (Integer) params.get("latency_thresh");
+		warmupThresh      = (Double) params.get("warmup_thresh");
+		
+		traffic           = (TrafficType) params.get("traffic_pattern");
+		trace             = traffic == TrafficType.TRACE;
+		traceFile         = (String) params.get("trace_file");
+		packetSize        = (Integer) params.get("flits_per_packet");
+		sourceQueue       = (Integer) params.get("source_queue");
+		injectionRate     = (Double) params.get("injection_rate");
+		injectionStep     = (Double) params.get("injection_step");
+		injection         = (InjProcess) params.get("injection_process");
+		burstAlpha        = (Double) params.get("burst_alpha");
+		burstBeta         = (Double) params.get("burst_beta");
+		permSeed          = (Long) params.get("perm_seed");
+		
+		validate();
+	}
+	
+	private void validate() throws Exception {
+		// The VCs of a port are tracked in bitmasks
+		if(numVCs > 64)
+			throw new Exception("'num_vcs' must be at most 64");
+		if(availableVCs > numVCs)
+			throw new Exception("insufficient virtual channels");
+		if(threads < 0)
+			throw new Exception("invalid 'threads' key value");
+		if(processes < 1)
+			throw new Exception("invalid 'processes' key value");
+		if(sourceQueue < 0)
+			throw new Exception("invalid 'source_queue' key value");
+		if(injection == InjProcess.ONOFF && burstAlpha + burstBeta != 1)
+			throw new Exception("Invalid alpha and beta burst values");
+	}
+	
+	/*
+	 * Number of engine threads, zero means use all available processors
+	 */
+	public int numThreads() {
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+}
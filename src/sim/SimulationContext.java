@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim;
+
+import sim.components.FlitArena;
+import sim.stats.Stats;
+import sim.traffic.Injection;
+import sim.traffic.Traffic;
+
+/*
+ * The state of one simulation: its configuration, network, flits, statistics and
+ * traffic. The static entry points of Config, Simulator, Stats, RunMode, Traffic
+ * and Injection are thin wrappers over the context of the calling thread, so
+ * independent simulations can run in one JVM on separate threads.
+ * 
+ * A thread uses the context it was started from, which is how the threads of an
+ * engine find the simulation they are stepping. A thread that was never given a
+ * context uses a default one, so a single simulation needs no set up.
+ */
+public class SimulationContext {
+
+	private static final SimulationContext m_default = new SimulationContext();
+	private static final InheritableThreadLocal<SimulationContext> m_current =
+		new InheritableThreadLocal<SimulationContext>();
+
+	private Config    m_config;
+	private Simulator m_simulator;
+	private RunMode   m_runMode;
+	private Stats     m_stats;
+	private Traffic   m_traffic;
+	private Injection m_injection;
+	private FlitArena m_flits;
+	private int       m_processorLinkCount;
+
+	public SimulationContext() {
+		m_config             = new Config();
+		m_simulator          = new Simulator();
+		m_runMode            = new RunMode();
+		m_stats              = new Stats();
+		m_traffic            = new Traffic();
+		m_injection          = new Injection();
+		m_flits              = new FlitArena();
+		m_processorLinkCount = 0;
+	}
+
+	/*
+	 * Run a task with this context as the context of the calling thread, and of
+	 * any threads it starts
+	 */
+	public void run(Runnable task) {
+		SimulationContext previous = m_current.get();
+		m_current.set(this);
+		try {
+			task.run();
+		} finally {
+			m_current.set(previous);
+		}
+	}
+
+	public static SimulationContext current() {
+		SimulationContext context = m_current.get();
+		return context != null ? context : m_default;
+	}
+
+	public int nextProcessorLinkId() { return m_processorLinkCount++; }
+
+	Config              config()     { return m_config; }
+	public Simulator    simulator()  { return m_simulator; }
+	public RunMode      runMode()    { return m_runMode; }
+	public Stats        stats()      { return m_stats; }
+	public Traffic      traffic()    { return m_traffic; }
+	public Injection    injection()  { return m_injection; }
+	public FlitArena    flits()      { return m_flits; }
+}
@@ -6,8 +6,6 @@
  */ 
 package sim;
 
-import java.util.Random;
-
 import sim.components.Network;
 import sim.stats.Stats;
 import sim.traffic.Injection;
@@ -22,38 +20,112 @@ public class Simulator {
 		DONE
 	};
 	
-	private static SimState  m_state;
-	private static Random    m_rand;
-	private static Network   m_network;
-	private static int       m_cycleCount;
+	private SimState  m_state;
+	private SplitRandom   m_rand;
+	private SplitRandom[] m_nodeRands;
+	private SplitRandom[] m_routerRands;
+	private Network   m_network;
+	private Clock     m_clock;
 
-	private Simulator() {}
+	Simulator() {
+		m_clock = new Clock();
+	}
 	
 	/*
 	 * Initialse the simulator by creating all of the network components 
 	 * and adding them to a list of Components
 	 */
 	public static void init() {
-		m_state   = SimState.WARMING_UP;
-		m_rand    = new Random(Config.seed());
-		m_network = new Network();
+		Simulator sim = current();
+		SplitRandom root = new SplitRandom(Config.seed());
+		shutdown();
+		sim.m_state   = SimState.WARMING_UP;
+		sim.m_rand    = root.split();
+		sim.m_network = new Network();
+		sim.m_network.initTraffic();
+		initNodeRands(root);
+		Traffic.reset();
+		Injection.reset();
 		Stats.init();
 	}
+	
+	/*
+	 * Each processor draws its traffic, and each router its routing choices, from 
+	 * its own random stream, split from the seed in node order, so the results do 
+	 * not depend on the order (or the thread) that nodes are updated in. The rest 
+	 * of the stream of the simulator is only drawn from while it is set up
+	 */
+	private static void initNodeRands(SplitRandom root) {
+		Simulator sim = current();
+		int numNodes = sim.m_network.numNodes();
+		sim.m_nodeRands = new SplitRandom[numNodes];
+		sim.m_routerRands = new SplitRandom[numNodes];
+		for(int i=0; i<numNodes; i++) {
+			sim.m_nodeRands[i] = root.split();
+			sim.m_routerRands[i] = root.split();
+		}
+	}
 
 	/*
 	 * Perform one simulation step: update states, display it then copy it on
 	 */
 	public static void step() {
-		m_network.step();
-		m_cycleCount++;
+		Simulator sim = current();
+		sim.m_network.step();
+		sim.m_clock.advance(1);
+	}
+
+	/*
+	 * Perform a number of simulation steps. If fast-forwarding, when there are no 
+	 * flits or credits in the network jump straight to the next cycle that a 
+	 * packet could be generated
+	 */
+	public static void run(int cycles) {
+		Simulator sim = current();
+		Clock clock = sim.m_clock;
+		long end = clock.now() + cycles;
+		boolean fastForward = Config.fastForward();
+		while(clock.now() < end) {
+			if(fastForward && Stats.packetsGenerated() == Stats.packetsReceived() 
+					&& sim.m_network.isQuiescent()) {
+				long next = Math.min(sim.m_network.nextEventCycle(clock.now()), end);
+				if(next > clock.now()) {
+					Stats.skipCycles((int) (next - clock.now()));
+					clock.set(next);
+					continue;
+				}
+			}
+			clock.advance(sim.m_network.run((int) (end - clock.now())));
+		}
+	}
+
+	/*
+	 * Stop the threads of the engine of the network and free what it holds, if 
+	 * there is one
+	 */
+	public static void shutdown() {
+		Simulator sim = current();
+		if(sim.m_network != null)
+			sim.m_network.shutdown();
+		sim.m_network = null;
 	}
 
 	public static void reset() {
-		m_network.reset();
+		Simulator sim = current();
+		sim.m_network.reset();
 		Traffic.reset();
 		Injection.reset();
-		m_cycleCount = 0;
-		m_state  = SimState.WARMING_UP;
+		sim.m_clock.set(0);
+		sim.m_state  = SimState.WARMING_UP;
+		Stats.recountPackets();
+	}
+	
+	/*
+	 * The global cycle. Components capture the clock they are stepped on when 
+	 * they are built, as a partition may be advanced ahead of this one
+	 */
+	public static long clock() {
+		return current().m_clock.now();
 	}
 	
 	public String dumpStats() {
@@ -61,16 +133,23 @@ public class Simulator {
 		return s;
 	} 
 	
-	public static boolean  running()                { return m_state.equals(SimState.RUNNING); }
-	public static long     clock()                  { return m_cycleCount; }
-	public static int      numNodes()               { return m_network.numNodes(); }
-	public static int      getRandInt()             { return m_rand.nextInt(); }
-	public static int      getRandInt(int n)        { return m_rand.nextInt(n); }
-	public static long     getRandLong()            { return m_rand.nextLong(); }
-	public static double   randDouble()             { return m_rand.nextDouble(); }
-	public static void     setState(SimState state) { m_state = state; }
-	public static Network  getNetwork()             { return m_network; }
-	public static boolean  warmingUp()              { return m_state.equals(SimState.WARMING_UP); }
-	public static SimState getState()               { return m_state; }
-	public static boolean  draining()               { return m_state.equals(SimState.DRAINING); }
-}
\ No newline at end of file
+	public boolean         isRunning()              { return m_state == SimState.RUNNING; }
+	public boolean         isDraining()             { return m_state == SimState.DRAINING; }
+	
+	public static Clock    getClock()               { return current().m_clock; }
+	public static boolean  running()                { return current().m_state.equals(SimState.RUNNING); }
+	public static SplitRandom nodeRandom(int node)  { return current().m_nodeRands[node]; }
+	public static SplitRandom routerRandom(int node) { return current().m_routerRands[node]; }
+	public static int      numNodes()               { return current().m_network.numNodes(); }
+	public static int      getRandInt()             { return current().m_rand.nextInt(); }
+	public static int      getRandInt(int n)        { return current().m_rand.nextInt(n); }
+	public static long     getRandLong()            { return current().m_rand.nextLong(); }
+	public static double   randDouble()             { return current().m_rand.nextDouble(); }
+	public static void     setState(SimState state) { current().m_state = state; }
+	public static Network  getNetwork()             { return current().m_network; }
+	public static boolean  warmingUp()              { return current().m_state.equals(SimState.WARMING_UP); }
+	public static SimState getState()               { return current().m_state; }
+	public static boolean  draining()               { return current().m_state.equals(SimState.DRAINING); }
+	
+	private static Simulator current() { return SimulationContext.current().simulator(); }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim;
+
+/*
+ * A fast splittable generator (SplitMix64). Each stream is a seed advanced by 
+ * its own odd gamma and mixed, and split gives a new stream that is independent 
+ * of the one it was split from. A stream is not synchronized, so each is only 
+ * drawn from by the one component that owns it, and a set of streams split from 
+ * the same seed in the same order always gives the same numbers, whatever 
+ * thread each component is stepped on
+ */
+public final class SplitRandom {
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long       m_seed;
+	private final long m_gamma;
+
+	public SplitRandom(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	private SplitRandom(long seed, long gamma) {
+		m_seed  = seed;
+		m_gamma = gamma;
+	}
+
+	/*
+	 * A new stream, with its own seed and gamma taken from this one
+	 */
+	public SplitRandom split() {
+		return new SplitRandom(nextLong(), mixGamma(nextSeed()));
+	}
+
+	public long nextLong() {
+		return mix64(nextSeed());
+	}
+
+	public int nextInt() {
+		return mix32(nextSeed());
+	}
+
+	/*
+	 * Uniform in [0, bound), without the bias of taking a remainder
+	 */
+	public int nextInt(int bound) {
+		int r = nextInt();
+		int m = bound - 1;
+		if((bound & m) == 0)
+			return r & m;
+		for(int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1);
+		return r;
+	}
+
+	/*
+	 * Uniform in [0, 1), from the top 53 bits
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	private long nextSeed() {
+		return m_seed += m_gamma;
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static int mix32(long z) {
+		z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+		return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+	}
+
+	/*
+	 * An odd gamma with enough bit transitions to mix well
+	 */
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		return Long.bitCount(z ^ (z >>> 1)) < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+}
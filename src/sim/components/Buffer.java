@@ -6,44 +6,81 @@
  */ 
 package sim.components;
 
-import java.util.LinkedList;
-
+/*
+ * A fixed capacity FIFO of flit handles held in a circular array, allocated once 
+ * so that moving a flit through a buffer allocates nothing. A flit taken from the 
+ * head can be put back at the head with replaceHeadFlit
+ */
 public class Buffer {
 
-	private Console          m_console;
-	private LinkedList<Flit> m_buffer;
-	private int              m_capacity;
+	private Probe     m_probe;
+	private FlitArena m_arena;
+	private int[]     m_flits;
+	private int       m_head;
+	private int       m_count;
 	
 	public Buffer(int capacity, Console console) {
-		m_console  = console;
-		m_capacity = capacity;
-		m_buffer   = new LinkedList<Flit>();
+		m_probe   = console.probe();
+		m_arena   = FlitArena.current();
+		m_flits   = new int[capacity];
+		m_head    = 0;
+		m_count   = 0;
 	}
 
-	public boolean offerFlit(Flit flit) {
-		if(m_buffer.size() < m_capacity) {
-			m_buffer.addLast(flit);
+	public boolean offerFlit(int flit) {
+		if(m_count < m_flits.length) {
+			m_flits[slot(m_count)] = flit;
+			m_count++;
 			return true;
 		}
 		System.err.println("Buffer could not accept flit");
-		console("Buffer could not accept flit");
+		m_probe.message("Buffer could not accept flit");
 		return false;
 	}
+	
+	public int takeFlit() {
+		if(m_count == 0)
+			return FlitArena.NONE;
+		int flit = m_flits[m_head];
+		m_head = slot(1);
+		m_count--;
+		return flit;
+	}
+	
+	public void replaceHeadFlit(int flit) {
+		if(m_count == m_flits.length) {
+			System.err.println("Buffer could not replace head flit");
+			m_probe.message("Buffer could not replace head flit");
+			return;
+		}
+		m_head = slot(m_flits.length - 1);
+		m_flits[m_head] = flit;
+		m_count++;
+	}
+	
+	public void clear() {
+		m_head = 0;
+		m_count = 0;
+	}
 
 	public String toString() {
 		String s = "";
-		for(Flit f : m_buffer)
-			s += f+" ";
+		for(int i=0; i<m_count; i++)
+			s += m_arena.toString(m_flits[slot(i)])+" ";
 		return s;
 	}
 	
-	public boolean hasFlits()                 { return !m_buffer.isEmpty(); }
-	public boolean isFull()                   { return m_buffer.size() >= m_capacity; }
-	public Flit    peekFlit()                 { return m_buffer.peek(); }
-	public Flit    takeFlit()                 { return m_buffer.poll(); }
-	public int     freeSlots()                { return m_capacity - m_buffer.size(); }
-	public int     usedSlots()                { return m_buffer.size(); }
-	public void    clear()                    { m_buffer.clear(); }
-	public void    replaceHeadFlit(Flit flit) { m_buffer.add(0, flit); }
-	public void    console(String text)       { m_console.console(text); }
+	/*
+	 * The slot of the i'th flit from the head
+	 */
+	private int slot(int i) {
+		int slot = m_head + i;
+		return slot < m_flits.length ? slot : slot - m_flits.length;
+	}
+	
+	public boolean hasFlits()                 { return m_count != 0; }
+	public boolean isFull()                   { return m_count >= m_flits.length; }
+	public int     peekFlit()                 { return m_count == 0 ? FlitArena.NONE : m_flits[m_head]; }
+	public int     freeSlots()                { return m_flits.length - m_count; }
+	public int     usedSlots()                { return m_count; }
 }
@@ -0,0 +1,622 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.util.Arrays;
+
+import sim.Config;
+import sim.routing.RoutingFunction;
+import sim.topology.TopologyGraph;
+
+/*
+ * The routers and links of a network compiled into flat arrays, so that a step
+ * is a few tight loops over primitive state rather than a walk over port, VC and
+ * buffer objects. The routers and links are compiled straight from the topology
+ * and are never built as objects; the nodes only hold their processors and the
+ * processor links, and the routing functions are taken from the network.
+ * 
+ * Input and output ports are numbered across the whole network, router by router
+ * in port order with the processor port last, and each port has a fixed stride of VCs so that a VC is found at
+ * port * numVCs + vc. Each input VC buffer is a ring of bufferSize slots. A VC's
+ * stack of states is packed into a long by VCState, as it is for the VC objects,
+ * and each port keeps the same masks of its VCs as the port objects do, so a
+ * round-robin pick or a VC allocation is a few bit operations. The structure of
+ * the network is held in plain arrays. The state, including the handles of the
+ * flits held, is allocated from an arena which may hold it off the heap; the
+ * flits themselves are records in the FlitArena.
+ * 
+ * A signal written to a link in one cycle is due a link delay later, so signals
+ * in transit are kept on a timing wheel with a slot for each cycle up to the
+ * longest delay. Each slot lists the links that have a flit or a credit due in
+ * its cycle, and a link carries at most one signal each way per cycle, so a slot
+ * never holds more than one entry per link. Only the signals due are visited.
+ * 
+ * When every router routes by a deterministic function the routes are compiled
+ * into a table of the output port and VC from each router to each destination.
+ * The processors are left as objects: what they write to their links is taken
+ * from the processor links at the end of the copy phase and carried here, and
+ * what is due to them is set on their ports.
+ */
+public class CompiledNetwork {
+
+	// The largest routing table compiled, in entries, above which the routing
+	// functions are called instead
+	private static final long   ROUTE_TABLE_LIMIT = 1 << 22;
+
+	// A route is the output port shifted above the output VC plus one, which is
+	// zero when any VC may be allocated
+	private static final int    ROUTE_VC_BITS = 7;
+	private static final int    ROUTE_VC_MASK = (1 << ROUTE_VC_BITS) - 1;
+
+	private int                 m_numVCs;
+	private int                 m_bufferSize;
+	private int                 m_numNodes;
+	private Network             m_network;
+	private int[]               m_firstInput;
+	private int[]               m_numInputs;
+	private int[]               m_firstOutput;
+	private int[]               m_numOutputs;
+	private StateArena          m_arena;
+	private StateArena.Ints     m_routes;
+
+	// Input ports and VCs
+	private int[]               m_inLink;
+	private StateArena.Ints     m_inCurrVC;
+	private StateArena.Ints     m_inSendCredit;
+	private StateArena.Ints     m_inFlit;
+	private StateArena.Longs    m_inReady;
+	private StateArena.Longs    m_ivcState;
+	private StateArena.Ints     m_ivcCredits;
+	private StateArena.Ints     m_ivcOutPort;
+	private StateArena.Ints     m_ivcOutVC;
+	private StateArena.Ints     m_bufHead;
+	private StateArena.Ints     m_bufCount;
+	private StateArena.Ints     m_bufSlots;
+
+	// Output ports and VCs
+	private int[]               m_outLink;
+	private long[]              m_outAllVCs;
+	private long[]              m_outAvailable;
+	private StateArena.Ints     m_outCurrVC;
+	private StateArena.Ints     m_outCredit;
+	private StateArena.Longs    m_outFree;
+	private StateArena.Longs    m_outSendable;
+	private StateArena.Longs    m_ovcState;
+	private StateArena.Ints     m_ovcCredits;
+	private StateArena.Ints     m_ovcInPort;
+	private StateArena.Ints     m_ovcInVC;
+	private StateArena.Ints     m_ovcFlit;
+
+	// Links, with the port at each end or -1 if it is a processor's
+	private int[]               m_linkDelay;
+	private int[]               m_linkTo;
+	private int[]               m_linkFrom;
+	private InputPort[]         m_linkToProc;
+	private OutputPort[]        m_linkFromProc;
+	private int                 m_numIn;
+	private int                 m_numOut;
+	private int                 m_numLinks;
+	private FlitArena           m_flits;
+
+	// The timing wheel, with the slot of the current cycle
+	private int                 m_wheelSize;
+	private int                 m_now;
+	private int[]               m_dueFlitCount;
+	private int[]               m_dueCreditCount;
+	private StateArena.Ints     m_dueFlitLink;
+	private StateArena.Ints     m_dueFlit;
+	private StateArena.Ints     m_dueCreditLink;
+	private StateArena.Ints     m_dueCredit;
+	private int                 m_inTransit;
+
+	// Processor links of each node, with the compiled links they are carried on
+	private Link[]              m_procRouter;
+	private Link[]              m_routerProc;
+	private int[]               m_procRouterLink;
+	private int[]               m_routerProcLink;
+
+	public CompiledNetwork(Network network, StateArena arena) {
+		TopologyGraph graph = network.getGraph();
+		Node[] nodes   = network.getNodes();
+		m_numVCs       = Math.max(1, Config.numVCs());
+		m_bufferSize   = Config.bufferSize();
+		m_numNodes     = nodes.length;
+		m_network      = network;
+		m_arena        = arena;
+		m_flits        = FlitArena.current();
+
+		int numRouters = m_numNodes;
+		m_firstInput  = new int[numRouters];
+		m_numInputs   = new int[numRouters];
+		m_firstOutput = new int[numRouters];
+		m_numOutputs  = new int[numRouters];
+
+		// Number the ports, with the processor port after those of the topology
+		int numIn = 0;
+		int numOut = 0;
+		for(int r=0; r<numRouters; r++) {
+			m_firstInput[r] = numIn;
+			m_firstOutput[r] = numOut;
+			m_numInputs[r] = graph.inDegree(r) + 1;
+			m_numOutputs[r] = graph.outDegree(r) + 1;
+			numIn += m_numInputs[r];
+			numOut += m_numOutputs[r];
+		}
+
+		m_inLink       = new int[numIn];
+		m_inCurrVC     = arena.ints(numIn);
+		m_inSendCredit = arena.ints(numIn);
+		m_inFlit       = arena.ints(numIn);
+		m_inReady      = arena.longs(numIn);
+		long numInVCs = (long) numIn * m_numVCs;
+		m_ivcState     = arena.longs(numInVCs);
+		m_ivcCredits   = arena.ints(numInVCs);
+		m_ivcOutPort   = arena.ints(numInVCs);
+		m_ivcOutVC     = arena.ints(numInVCs);
+		m_bufHead      = arena.ints(numInVCs);
+		m_bufCount     = arena.ints(numInVCs);
+		m_bufSlots     = arena.ints(numInVCs * m_bufferSize);
+
+		m_outLink      = new int[numOut];
+		m_outAllVCs    = new long[numOut];
+		m_outAvailable = new long[numOut];
+		m_outCurrVC    = arena.ints(numOut);
+		m_outCredit    = arena.ints(numOut);
+		m_outFree      = arena.longs(numOut);
+		m_outSendable  = arena.longs(numOut);
+		long numOutVCs = (long) numOut * m_numVCs;
+		m_ovcState     = arena.longs(numOutVCs);
+		m_ovcCredits   = arena.ints(numOutVCs);
+		m_ovcInPort    = arena.ints(numOutVCs);
+		m_ovcInVC      = arena.ints(numOutVCs);
+		m_ovcFlit      = arena.ints(numOutVCs);
+
+		// The links of the topology, then the two processor links of each node
+		int numRouterLinks = graph.numLinks();
+		int numLinks = numRouterLinks + 2 * numRouters;
+		m_numIn = numIn;
+		m_numOut = numOut;
+		m_numLinks = numLinks;
+		m_linkDelay    = new int[numLinks];
+		m_linkTo       = new int[numLinks];
+		m_linkFrom     = new int[numLinks];
+		m_linkToProc   = new InputPort[numLinks];
+		m_linkFromProc = new OutputPort[numLinks];
+
+		int delay = Config.linkDelay();
+		for(int l=0; l<numRouterLinks; l++) {
+			m_linkDelay[l] = delay;
+			m_linkTo[l] = m_firstInput[graph.getTo(l)] + graph.getToPort(l);
+			m_linkFrom[l] = m_firstOutput[graph.getFrom(l)] + graph.getFromPort(l);
+			m_inLink[m_linkTo[l]] = l;
+			m_outLink[m_linkFrom[l]] = l;
+		}
+
+		m_procRouter     = new Link[numRouters];
+		m_routerProc     = new Link[numRouters];
+		m_procRouterLink = new int[numRouters];
+		m_routerProcLink = new int[numRouters];
+		int maxDelay = delay;
+		for(int r=0; r<numRouters; r++) {
+			int procInput = m_firstInput[r] + m_numInputs[r] - 1;
+			int procOutput = m_firstOutput[r] + m_numOutputs[r] - 1;
+
+			int l = numRouterLinks + 2 * r;
+			m_procRouter[r] = nodes[r].getProcRouterLink();
+			m_procRouterLink[r] = l;
+			m_linkDelay[l] = m_procRouter[r].getDelay();
+			m_linkTo[l] = procInput;
+			m_linkFrom[l] = -1;
+			m_linkFromProc[l] = m_procRouter[r].getFromPort();
+			m_inLink[procInput] = l;
+
+			l++;
+			m_routerProc[r] = nodes[r].getRouterProcLink();
+			m_routerProcLink[r] = l;
+			m_linkDelay[l] = m_routerProc[r].getDelay();
+			m_linkTo[l] = -1;
+			m_linkFrom[l] = procOutput;
+			m_linkToProc[l] = m_routerProc[r].getToPort();
+			m_outLink[procOutput] = l;
+
+			maxDelay = Math.max(maxDelay, Math.max(m_linkDelay[l - 1], m_linkDelay[l]));
+		}
+
+		// A processor port has a single VC
+		for(int op=0; op<numOut; op++) {
+			int numVCs = m_linkTo[m_outLink[op]] == -1 ? 1 : Config.numVCs();
+			m_outAllVCs[op] = Port.lowBits(numVCs);
+			m_outAvailable[op] = Port.lowBits(Math.min(Config.availableVCs(), numVCs));
+		}
+
+		// A slot for each cycle up to the longest delay
+		m_wheelSize      = maxDelay + 1;
+		long wheelSlots  = (long) m_wheelSize * numLinks;
+		m_dueFlitCount   = new int[m_wheelSize];
+		m_dueCreditCount = new int[m_wheelSize];
+		m_dueFlitLink    = arena.ints(wheelSlots);
+		m_dueFlit        = arena.ints(wheelSlots);
+		m_dueCreditLink  = arena.ints(wheelSlots);
+		m_dueCredit      = arena.ints(wheelSlots);
+
+		reset();
+	}
+
+	/*
+	 * Build the table of routes from the routing functions of the routers, when
+	 * they are all deterministic and the table is not too large. The table is
+	 * allocated the first time and filled again each time the routing is set
+	 */
+	public void compileRouting() {
+		boolean deterministic = (long) m_numNodes * m_numNodes <= ROUTE_TABLE_LIMIT;
+		for(int r=0; r<m_numNodes; r++) {
+			RoutingFunction fn = m_network.getRoutingFn(r);
+			deterministic &= fn != null && fn.isDeterministic();
+		}
+		if(!deterministic) {
+			m_routes = null;
+			return;
+		}
+
+		StateArena.Ints routes = m_routes;
+		if(routes == null)
+			routes = m_arena.ints((long) m_numNodes * m_numNodes);
+		for(int r=0; r<m_numNodes; r++) {
+			RoutingFunction fn = m_network.getRoutingFn(r);
+			for(int dest=0; dest<m_numNodes; dest++) {
+				if(dest == r) {
+					routes.put(r * m_numNodes + dest, (m_numOutputs[r] - 1) << ROUTE_VC_BITS);
+				} else {
+					int port = fn.getOutputPort(r, 0, r, dest);
+					int vc = fn.getOutputVC(r, 0, r, dest);
+					routes.put(r * m_numNodes + dest, (port << ROUTE_VC_BITS) | (vc + 1));
+				}
+			}
+		}
+		m_routes = routes;
+	}
+
+	/*
+	 * Route the flits and credits read by every router
+	 */
+	public void update() {
+		for(int r=0; r<m_numNodes; r++) {
+			int first = m_firstInput[r];
+			int last = first + m_numInputs[r];
+			for(int ip=first; ip<last; ip++)
+				readInputFlit(ip);
+
+			int lastOutput = m_firstOutput[r] + m_numOutputs[r];
+			for(int op=m_firstOutput[r]; op<lastOutput; op++)
+				readInputCredit(op);
+
+			for(int ip=first; ip<last; ip++)
+				routeInput(r, ip);
+		}
+	}
+
+	/*
+	 * Write the credits and flits of every router to its links, then carry the
+	 * signals written by the processors and deliver every signal due this cycle
+	 */
+	public void copy(long clock) {
+		m_now = (int) (clock % m_wheelSize);
+
+		for(int ip=0; ip<m_numIn; ip++)
+			writeOutputCredit(ip);
+		for(int op=0; op<m_numOut; op++)
+			writeOutputFlit(op);
+
+		for(int r=0; r<m_numNodes; r++) {
+			int flit = m_procRouter[r].takeInputFlit();
+			if(flit != FlitArena.NONE)
+				postFlit(m_procRouterLink[r], flit);
+			int vc = m_routerProc[r].takeInputCredit();
+			if(vc != -1)
+				postCredit(m_routerProcLink[r], vc);
+		}
+
+		if(m_inTransit > 0)
+			deliver();
+	}
+
+	private void readInputFlit(int ip) {
+		int flit = m_inFlit.get(ip);
+		if(flit == FlitArena.NONE)
+			return;
+		m_inFlit.put(ip, FlitArena.NONE);
+
+		int vc = m_flits.getVC(flit);
+		int ivc = ip * m_numVCs + vc;
+		long state = m_ivcState.get(ivc);
+		if(VCState.top(state) == VCState.IDLE)
+			m_ivcState.put(ivc, VCState.setActive(state));
+		int count = m_bufCount.get(ivc);
+		if(count < m_bufferSize) {
+			int slot = m_bufHead.get(ivc) + count;
+			if(slot >= m_bufferSize)
+				slot -= m_bufferSize;
+			m_bufSlots.put(ivc * m_bufferSize + slot, flit);
+			m_bufCount.put(ivc, count + 1);
+		} else {
+			System.err.println("Buffer could not accept flit");
+		}
+		inputChanged(ip, vc, ivc);
+	}
+
+	/*
+	 * A credit for an output VC is also a credit for the input VC connected to it
+	 */
+	private void readInputCredit(int op) {
+		int credit = m_outCredit.get(op);
+		if(credit == -1)
+			return;
+		m_outCredit.put(op, -1);
+
+		int ovc = op * m_numVCs + credit;
+		m_ovcState.put(ovc, VCState.incCredits(m_ovcState.get(ovc), m_ovcFlit.get(ovc) != FlitArena.NONE));
+		m_ovcCredits.put(ovc, m_ovcCredits.get(ovc) + 1);
+		outputChanged(op, credit, ovc);
+
+		int ip = m_ovcInPort.get(ovc);
+		int vc = m_ovcInVC.get(ovc);
+		int ivc = ip * m_numVCs + vc;
+		m_ivcState.put(ivc, VCState.incCredits(m_ivcState.get(ivc), m_bufCount.get(ivc) > 0));
+		m_ivcCredits.put(ivc, m_ivcCredits.get(ivc) + 1);
+		inputChanged(ip, vc, ivc);
+	}
+
+	/*
+	 * Take the flit at the head of the next input VC (round-robin) that is active
+	 * or waiting for a VC, and move it through the switch
+	 */
+	private void routeInput(int r, int ip) {
+		long ready = m_inReady.get(ip);
+		if(ready == 0)
+			return;
+		int vc = Port.nextVC(ready, m_inCurrVC.get(ip));
+		m_inCurrVC.put(ip, vc);
+
+		int ivc = ip * m_numVCs + vc;
+		int flit = m_bufSlots.get(ivc * m_bufferSize + m_bufHead.get(ivc));
+		int op;
+		int outputVC;
+
+		if(m_flits.isHeader(flit)) {
+			int route = route(r, flit);
+			op = m_firstOutput[r] + (route >> ROUTE_VC_BITS);
+			int routedVC = (route & ROUTE_VC_MASK) - 1;
+			outputVC = routedVC == -1 ? allocVC(op) : allocVC(op, routedVC);
+
+			if(outputVC == -1) {
+				m_ivcState.put(ivc, VCState.setWaitingVC(m_ivcState.get(ivc)));
+				return;
+			}
+
+			m_ivcOutPort.put(ivc, op);
+			m_ivcOutVC.put(ivc, outputVC);
+			if(VCState.top(m_ivcState.get(ivc)) == VCState.WAIT_VC)
+				m_ivcState.put(ivc, VCState.pop(m_ivcState.get(ivc)));
+			inputChanged(ip, vc, ivc);
+
+			int ovc = op * m_numVCs + outputVC;
+			m_ovcInPort.put(ovc, ip);
+			m_ovcInVC.put(ovc, vc);
+			m_ovcState.put(ovc, VCState.setActive(m_ovcState.get(ovc)));
+			outputChanged(op, outputVC, ovc);
+		} else {
+			op = m_ivcOutPort.get(ivc);
+			outputVC = m_ivcOutVC.get(ivc);
+		}
+
+		// Only take the input flit if the output is empty
+		int ovc = op * m_numVCs + outputVC;
+		if(m_ovcFlit.get(ovc) == FlitArena.NONE) {
+			m_inSendCredit.put(ip, 1);
+			int head = m_bufHead.get(ivc) + 1;
+			m_bufHead.put(ivc, head == m_bufferSize ? 0 : head);
+			m_bufCount.put(ivc, m_bufCount.get(ivc) - 1);
+			if(m_flits.isTail(flit))
+				m_ivcState.put(ivc, VCState.pop(m_ivcState.get(ivc)));
+			m_ivcState.put(ivc, VCState.decCredits(m_ivcState.get(ivc), m_ivcCredits.get(ivc)));
+			m_ivcCredits.put(ivc, m_ivcCredits.get(ivc) - 1);
+			inputChanged(ip, vc, ivc);
+
+			m_ovcFlit.put(ovc, m_flits.withVC(flit, outputVC));
+			outputChanged(op, outputVC, ovc);
+		}
+	}
+
+	/*
+	 * The route of a header from a router, from the table if there is one. Else
+	 * the routing function is asked, unless the header has arrived
+	 */
+	private int route(int r, int flit) {
+		int dest = m_flits.getDest(flit);
+		if(m_routes != null)
+			return m_routes.get(r * m_numNodes + dest);
+
+		if(dest == r)
+			return (m_numOutputs[r] - 1) << ROUTE_VC_BITS;
+		RoutingFunction fn = m_network.getRoutingFn(r);
+		int src = m_flits.getSrc(flit);
+		int vc = m_flits.getVC(flit);
+		int port = fn.getOutputPort(r, vc, src, dest);
+		return (port << ROUTE_VC_BITS) | (fn.getOutputVC(r, vc, src, dest) + 1);
+	}
+
+	/*
+	 * Keep the mask of the VCs of an input port with a flit to route up to date
+	 * when the state or the buffer of one of them changes
+	 */
+	private void inputChanged(int ip, int vc, int ivc) {
+		int state = VCState.top(m_ivcState.get(ivc));
+		boolean ready = (state == VCState.ACTIVE || state == VCState.WAIT_VC) && m_bufCount.get(ivc) > 0;
+		m_inReady.put(ip, Port.setBit(m_inReady.get(ip), vc, ready));
+	}
+
+	/*
+	 * Keep the masks of the VCs of an output port that are free to allocate and
+	 * that have a flit to send up to date
+	 */
+	private void outputChanged(int op, int vc, int ovc) {
+		int state = VCState.top(m_ovcState.get(ovc));
+		boolean free = state == VCState.IDLE && m_ovcCredits.get(ovc) == m_bufferSize;
+		boolean sendable = state == VCState.ACTIVE && m_ovcFlit.get(ovc) != FlitArena.NONE;
+		m_outFree.put(op, Port.setBit(m_outFree.get(op), vc, free));
+		m_outSendable.put(op, Port.setBit(m_outSendable.get(op), vc, sendable));
+	}
+
+	/*
+	 * Allocate an idle output VC with full credits, within the available VCs
+	 */
+	private int allocVC(int op) {
+		long free = m_outFree.get(op) & m_outAvailable[op];
+		return free == 0 ? -1 : Long.numberOfTrailingZeros(free);
+	}
+
+	private int allocVC(int op, int vc) {
+		return (m_outFree.get(op) & (1L << vc)) != 0 ? vc : -1;
+	}
+
+	private void writeOutputCredit(int ip) {
+		if(m_inSendCredit.get(ip) != 0) {
+			postCredit(m_inLink[ip], m_inCurrVC.get(ip));
+			m_inSendCredit.put(ip, 0);
+		}
+	}
+
+	/*
+	 * Send the flit of the next active output VC (round-robin)
+	 */
+	private void writeOutputFlit(int op) {
+		long sendable = m_outSendable.get(op);
+		if(sendable == 0)
+			return;
+		int vc = Port.nextVC(sendable, m_outCurrVC.get(op));
+		m_outCurrVC.put(op, vc);
+
+		int ovc = op * m_numVCs + vc;
+		int flit = m_ovcFlit.get(ovc);
+		if(m_flits.isTail(flit))
+			m_ovcState.put(ovc, VCState.pop(m_ovcState.get(ovc)));
+		m_ovcState.put(ovc, VCState.decCredits(m_ovcState.get(ovc), m_ovcCredits.get(ovc)));
+		m_ovcCredits.put(ovc, m_ovcCredits.get(ovc) - 1);
+		m_ovcFlit.put(ovc, FlitArena.NONE);
+		outputChanged(op, vc, ovc);
+		m_flits.incHops(flit);
+		postFlit(m_outLink[op], flit);
+	}
+
+	/*
+	 * Put a signal written this cycle in the slot of the cycle it is due, a link
+	 * delay on
+	 */
+	private void postFlit(int link, int flit) {
+		int slot = m_now + m_linkDelay[link];
+		if(slot >= m_wheelSize)
+			slot -= m_wheelSize;
+		int entry = slot * m_numLinks + m_dueFlitCount[slot]++;
+		m_dueFlitLink.put(entry, link);
+		m_dueFlit.put(entry, flit);
+		m_inTransit++;
+	}
+
+	private void postCredit(int link, int vc) {
+		int slot = m_now + m_linkDelay[link];
+		if(slot >= m_wheelSize)
+			slot -= m_wheelSize;
+		int entry = slot * m_numLinks + m_dueCreditCount[slot]++;
+		m_dueCreditLink.put(entry, link);
+		m_dueCredit.put(entry, vc);
+		m_inTransit++;
+	}
+
+	/*
+	 * Deliver the flits and credits in the slot of this cycle. Each link has its
+	 * own port at each end, so the order they are delivered in doesn't matter
+	 */
+	private void deliver() {
+		int first = m_now * m_numLinks;
+
+		int flits = m_dueFlitCount[m_now];
+		for(int i=first; i<first+flits; i++) {
+			int link = m_dueFlitLink.get(i);
+			int flit = m_dueFlit.get(i);
+			if(m_linkTo[link] != -1)
+				m_inFlit.put(m_linkTo[link], flit);
+			else
+				m_linkToProc[link].setFlitInput(flit);
+		}
+		m_dueFlitCount[m_now] = 0;
+
+		int credits = m_dueCreditCount[m_now];
+		for(int i=first; i<first+credits; i++) {
+			int link = m_dueCreditLink.get(i);
+			int credit = m_dueCredit.get(i);
+			if(m_linkFrom[link] != -1)
+				m_outCredit.put(m_linkFrom[link], credit);
+			else
+				m_linkFromProc[link].setCreditInput(credit);
+		}
+		m_dueCreditCount[m_now] = 0;
+
+		m_inTransit -= flits + credits;
+	}
+
+	/*
+	 * Whether there are no flits or credits held by any router or link
+	 */
+	public boolean isIdle() {
+		if(m_inTransit > 0)
+			return false;
+		for(int ip=0; ip<m_numIn; ip++)
+			if(m_inFlit.get(ip) != FlitArena.NONE || m_inSendCredit.get(ip) != 0)
+				return false;
+		for(int vc=0; vc<m_bufCount.capacity(); vc++)
+			if(m_bufCount.get(vc) > 0)
+				return false;
+		for(int op=0; op<m_numOut; op++)
+			if(m_outCredit.get(op) != -1)
+				return false;
+		for(int ovc=0; ovc<m_ovcFlit.capacity(); ovc++)
+			if(m_ovcFlit.get(ovc) != FlitArena.NONE)
+				return false;
+		return true;
+	}
+
+	/*
+	 * Every VC is idle with full credits, so every output VC is free
+	 */
+	public void reset() {
+		m_inCurrVC.fill(0);
+		m_inSendCredit.fill(0);
+		m_inFlit.fill(FlitArena.NONE);
+		m_inReady.fill(0);
+		m_ivcState.fill(VCState.EMPTY);
+		m_ivcCredits.fill(m_bufferSize);
+		m_bufHead.fill(0);
+		m_bufCount.fill(0);
+		m_bufSlots.fill(FlitArena.NONE);
+
+		m_outCurrVC.fill(0);
+		m_outCredit.fill(-1);
+		m_outSendable.fill(0);
+		m_ovcState.fill(VCState.EMPTY);
+		m_ovcCredits.fill(m_bufferSize);
+		m_ovcFlit.fill(FlitArena.NONE);
+		for(int op=0; op<m_numOut; op++)
+			m_outFree.put(op, m_outAllVCs[op]);
+
+		Arrays.fill(m_dueFlitCount, 0);
+		Arrays.fill(m_dueCreditCount, 0);
+		m_inTransit = 0;
+	}
+
+	public int numInputPorts() { return m_numIn; }
+	public int numLinks()      { return m_numLinks; }
+}
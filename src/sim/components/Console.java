@@ -25,9 +25,13 @@ public abstract class Console {
 	private JTextArea    m_console;
 	private JPanel       m_panel;
 	private boolean      m_scroll;
+	private Probe        m_probe;
+	private boolean      m_debug;
 	
 	public Console() {
-		if(Config.debugMode()) {
+		m_debug = Config.debugMode();
+		m_probe = m_debug ? new ConsoleProbe(this) : Probe.NONE;
+		if(m_debug) {
 			m_scroll = false;
 			
 			m_state = new JTextArea();
@@ -60,7 +64,7 @@ public abstract class Console {
 	}
 	
 	public void updateStateConsole() {
-		if(Config.debugMode()) {
+		if(m_debug) {
 			m_state.setText(toString());
 			if(!m_scroll)
 				m_state.select(0, 0);
@@ -71,14 +75,14 @@ public abstract class Console {
 	 * This caused so much hassle, appending to the console is very expensive!
 	 */
 	public void console(String text) {
-		if(Config.debugMode()) {
+		if(m_debug) {
 			m_console.append("["+Simulator.clock()+"]\t"+text+"\n");
 			m_console.setCaretPosition(m_console.getText().trim().length());
 		}
 	}
 	
 	public void resetConsoles() { 
-		if(Config.debugMode()) {
+		if(m_debug) {
 			m_console.setText("");
 		}
 	}
@@ -86,4 +90,5 @@ public abstract class Console {
 	public abstract String getTitle();
 
 	public JPanel getConsole()              { return m_panel; }
+	public Probe  probe()                   { return m_probe; }
 }
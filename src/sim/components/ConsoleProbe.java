@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+/*
+ * Formats the events of a node as messages on its console, in debug mode
+ */
+public class ConsoleProbe implements Probe {
+
+	private Console   m_console;
+	private FlitArena m_arena;
+
+	public ConsoleProbe(Console console) {
+		m_console = console;
+		m_arena   = FlitArena.current();
+	}
+
+	public void message(String text) {
+		m_console.console(text);
+	}
+
+	public void receivedFlit(int flit) {
+		m_console.console("Received flit "+m_arena.toString(flit));
+	}
+
+	public void openedConnection(int flit) {
+		m_console.console(m_arena.toString(flit)+" opening connection through O[0:0]");
+	}
+
+	public void openedConnection(int flit, int inPort, int inVC, int outPort, int outVC) {
+		m_console.console(m_arena.toString(flit)+" opening connection I["+inPort+":"+inVC+"] to O["+outPort+":"+outVC+"] on dsn VC "+outVC);
+	}
+
+	public void allocVCFailed(int inPort, int inVC, int outPort) {
+		m_console.console("could not allocate a VC for I["+inPort+":"+inVC+"] on O["+outPort+":?]");
+	}
+
+	public void wroteFlit(int port, int vc, int flit, int link) {
+		m_console.console("O["+port+":"+vc+"] wrote flit "+m_arena.toString(flit)+" to link "+link);
+	}
+
+	public void closedInputConnection(int port, int vc, long state) {
+		m_console.console("closing connection I["+port+":"+vc+"] state: "+VCState.toString(state));
+	}
+
+	public void closedOutputConnection(int port, int vc) {
+		m_console.console("closing connection O["+port+":"+vc+"]");
+	}
+}
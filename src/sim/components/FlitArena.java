@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import sim.SimulationContext;
+
+/*
+ * Holds the flits of a simulation as records packed into primitive arrays. A flit
+ * is an int handle to its record, which is what buffers, links and ports carry,
+ * and whether it is a header, body or tail flit is a field of the record rather
+ * than its class. NONE is used where there is no flit.
+ * 
+ * Records are held in chunks that never move, so a handle stays valid as the
+ * arena grows. Each processor allocates the flits of its packets from a cache of
+ * free handles and frees the flits it receives into it, so flits are recycled
+ * without any locking; the caches only go to the shared pool of the arena for a
+ * batch of handles at a time, when they run out or fill up.
+ * 
+ * With packet granularity only the header of a packet has a record. Its body and
+ * tail flits are marks, negative values below NONE that hold just their type and
+ * VC, since a router follows the connection opened by the header to forward them
+ * and the destination retires them against the header it received last.
+ */
+public class FlitArena {
+
+	public static final int  NONE   = -1;
+
+	public static final int  HEADER = 0;
+	public static final int  BODY   = 1;
+	public static final int  TAIL   = 2;
+
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int BATCH      = 256;
+	private static final int MARK       = 3;
+
+	// Int fields of a record, the last one being the length of a header or the
+	// sequence number of a body flit
+	private static final int TYPE     = 0;
+	private static final int SAMPLE   = 1;
+	private static final int VC       = 2;
+	private static final int HOPS     = 3;
+	private static final int SRC      = 4;
+	private static final int DEST     = 5;
+	private static final int INFO     = 6;
+	private static final int INTS     = 7;
+
+	// Long fields of a record
+	private static final int MSG_ID   = 0;
+	private static final int INJECTED = 1;
+	private static final int RECEIVED = 2;
+	private static final int LONGS    = 3;
+
+	// The tables of chunks are only replaced under the lock, and a handle only
+	// reaches another thread through the barriers between phases, after the table
+	// with its chunk, so the tables need not be volatile
+	private int[][]           m_ints;
+	private long[][]          m_longs;
+	private int[]             m_free;
+	private int               m_numFree;
+
+	/*
+	 * Free handles kept by one processor
+	 */
+	public static class Cache {
+		private int[] m_handles = new int[2 * BATCH];
+		private int   m_count   = 0;
+
+		public void clear() { m_count = 0; }
+	}
+
+	public FlitArena() {
+		m_ints  = new int[0][];
+		m_longs = new long[0][];
+		m_free  = new int[0];
+		m_numFree = 0;
+	}
+
+	public static FlitArena current() {
+		return SimulationContext.current().flits();
+	}
+
+	public int newHeader(Cache cache, long msgId, int sample, long injTime, int src, int dest, int length) {
+		int flit = newFlit(cache, HEADER, msgId, sample, injTime);
+		setInt(flit, SRC, src);
+		setInt(flit, DEST, dest);
+		setInt(flit, INFO, length);
+		return flit;
+	}
+
+	public int newBody(Cache cache, long msgId, int sample, long injTime, int seqNum) {
+		int flit = newFlit(cache, BODY, msgId, sample, injTime);
+		setInt(flit, INFO, seqNum);
+		return flit;
+	}
+
+	public int newTail(Cache cache, long msgId, int sample, long injTime) {
+		return newFlit(cache, TAIL, msgId, sample, injTime);
+	}
+
+	/*
+	 * The body and tail flits of a packet with packet granularity, on a VC
+	 */
+	public static int bodyMark(int vc) { return -2 - (vc << 1); }
+	public static int tailMark(int vc) { return -3 - (vc << 1); }
+
+	private int newFlit(Cache cache, int type, long msgId, int sample, long injTime) {
+		int flit = cache != null ? allocate(cache) : allocate();
+		setInt(flit, TYPE, type);
+		setLong(flit, MSG_ID, msgId);
+		setInt(flit, SAMPLE, sample);
+		setInt(flit, VC, -1);
+		setInt(flit, HOPS, 0);
+		setInt(flit, SRC, 0);
+		setInt(flit, DEST, 0);
+		setInt(flit, INFO, 0);
+		setLong(flit, INJECTED, injTime);
+		setLong(flit, RECEIVED, 0);
+		return flit;
+	}
+
+	/*
+	 * Return a flit to the cache it can be allocated from again
+	 */
+	public void free(Cache cache, int flit) {
+		if(cache.m_count == cache.m_handles.length)
+			drain(cache);
+		cache.m_handles[cache.m_count++] = flit;
+	}
+
+	private int allocate(Cache cache) {
+		if(cache.m_count == 0)
+			refill(cache);
+		return cache.m_handles[--cache.m_count];
+	}
+
+	private synchronized int allocate() {
+		if(m_numFree == 0)
+			newChunk();
+		return m_free[--m_numFree];
+	}
+
+	/*
+	 * Free a flit straight to the shared pool, for a flit that leaves this process
+	 */
+	public synchronized void free(int flit) {
+		m_free[m_numFree++] = flit;
+	}
+
+	private synchronized void refill(Cache cache) {
+		if(m_numFree == 0)
+			newChunk();
+		int n = Math.min(BATCH, m_numFree);
+		m_numFree -= n;
+		System.arraycopy(m_free, m_numFree, cache.m_handles, cache.m_count, n);
+		cache.m_count += n;
+	}
+
+	private synchronized void drain(Cache cache) {
+		cache.m_count -= BATCH;
+		System.arraycopy(cache.m_handles, cache.m_count, m_free, m_numFree, BATCH);
+		m_numFree += BATCH;
+	}
+
+	/*
+	 * Add a chunk of records and put its handles in the pool, in reverse so that
+	 * they are allocated in order. The pool has room for every handle
+	 */
+	private void newChunk() {
+		int chunk = m_ints.length;
+		int[][] ints = new int[chunk + 1][];
+		long[][] longs = new long[chunk + 1][];
+		System.arraycopy(m_ints, 0, ints, 0, chunk);
+		System.arraycopy(m_longs, 0, longs, 0, chunk);
+		ints[chunk] = new int[CHUNK_SIZE * INTS];
+		longs[chunk] = new long[CHUNK_SIZE * LONGS];
+
+		int[] free = new int[(chunk + 1) * CHUNK_SIZE];
+		System.arraycopy(m_free, 0, free, 0, m_numFree);
+		m_free = free;
+		for(int i=CHUNK_SIZE-1; i>=0; i--)
+			m_free[m_numFree++] = (chunk << CHUNK_BITS) | i;
+
+		m_longs = longs;
+		m_ints = ints;
+	}
+
+	/*
+	 * Free every flit, once the caches of the processors have been cleared
+	 */
+	public synchronized void reset() {
+		m_numFree = 0;
+		for(int chunk=m_ints.length-1; chunk>=0; chunk--)
+			for(int i=CHUNK_SIZE-1; i>=0; i--)
+				m_free[m_numFree++] = (chunk << CHUNK_BITS) | i;
+	}
+
+	/*
+	 * Write a flit to a stream, to pass it to another process
+	 */
+	public void write(int flit, DataOutputStream out) throws IOException {
+		if(!isRecord(flit)) {
+			out.writeByte(MARK);
+			out.writeInt(flit);
+			return;
+		}
+		out.writeByte(getInt(flit, TYPE));
+		if(isHeader(flit)) {
+			out.writeInt(getSrc(flit));
+			out.writeInt(getDest(flit));
+			out.writeInt(getLength(flit));
+		} else if(isBody(flit)) {
+			out.writeInt(getSeqNum(flit));
+		}
+		out.writeLong(getMsgId(flit));
+		out.writeInt(sampleNum(flit));
+		out.writeInt(getVC(flit));
+		out.writeLong(getInjTime(flit));
+		out.writeInt(getHops(flit));
+	}
+
+	public int read(DataInputStream in) throws IOException {
+		int type = in.readByte();
+		if(type == MARK)
+			return in.readInt();
+		int src = 0, dest = 0, info = 0;
+		if(type == HEADER) {
+			src = in.readInt();
+			dest = in.readInt();
+			info = in.readInt();
+		} else if(type == BODY) {
+			info = in.readInt();
+		}
+		int flit = newFlit(null, type, in.readLong(), in.readInt(), 0);
+		setInt(flit, SRC, src);
+		setInt(flit, DEST, dest);
+		setInt(flit, INFO, info);
+		setInt(flit, VC, in.readInt());
+		setLong(flit, INJECTED, in.readLong());
+		setInt(flit, HOPS, in.readInt());
+		return flit;
+	}
+
+	public String toString(int flit) {
+		if(flit == NONE)
+			return "";
+		if(!isRecord(flit))
+			return isTail(flit) ? "[T]" : "[B]";
+		switch(getInt(flit, TYPE)) {
+		case HEADER: return "[H"+getMsgId(flit)+":"+getDest(flit)+"]";
+		case BODY:   return "[B"+getMsgId(flit)+"."+getSeqNum(flit)+"]";
+		default:     return "[T"+getMsgId(flit)+"]";
+		}
+	}
+
+	/*
+	 * The number of records, free or not
+	 */
+	public int capacity() {
+		return m_ints.length * CHUNK_SIZE;
+	}
+
+	private int  getInt(int flit, int field)             { return m_ints[flit >>> CHUNK_BITS][(flit & CHUNK_MASK) * INTS + field]; }
+	private void setInt(int flit, int field, int value)  { m_ints[flit >>> CHUNK_BITS][(flit & CHUNK_MASK) * INTS + field] = value; }
+	private long getLong(int flit, int field)            { return m_longs[flit >>> CHUNK_BITS][(flit & CHUNK_MASK) * LONGS + field]; }
+	private void setLong(int flit, int field, long v)    { m_longs[flit >>> CHUNK_BITS][(flit & CHUNK_MASK) * LONGS + field] = v; }
+
+	public boolean isRecord(int flit)                    { return flit >= 0; }
+	public int     getType(int flit)                     { return getInt(flit, TYPE); }
+	public boolean isHeader(int flit)                    { return flit >= 0 && getInt(flit, TYPE) == HEADER; }
+	public boolean isBody(int flit)                      { return flit >= 0 ? getInt(flit, TYPE) == BODY : (flit & 1) == 0; }
+	public boolean isTail(int flit)                      { return flit >= 0 ? getInt(flit, TYPE) == TAIL : (flit & 1) != 0; }
+	public long    getMsgId(int flit)                    { return getLong(flit, MSG_ID); }
+	public boolean isMmt(int flit)                       { return getInt(flit, SAMPLE) != -1; }
+	public int     sampleNum(int flit)                   { return getInt(flit, SAMPLE); }
+	public int     getVC(int flit)                       { return flit >= 0 ? getInt(flit, VC) : (-2 - flit) >> 1; }
+	public void    incHops(int flit)                     { if(flit >= 0) setInt(flit, HOPS, getInt(flit, HOPS) + 1); }
+	public int     getHops(int flit)                     { return getInt(flit, HOPS); }
+	public int     getSrc(int flit)                      { return getInt(flit, SRC); }
+	public int     getDest(int flit)                     { return getInt(flit, DEST); }
+	public int     getLength(int flit)                   { return getInt(flit, INFO); }
+	public int     getSeqNum(int flit)                   { return getInt(flit, INFO); }
+	public long    getInjTime(int flit)                  { return getLong(flit, INJECTED); }
+	public long    getTimeReceived(int flit)             { return getLong(flit, RECEIVED); }
+	public void    setTimeReceived(int flit, long t)     { setLong(flit, RECEIVED, t); }
+	public long    getLatency(int flit)                  { return getLong(flit, RECEIVED) - getLong(flit, INJECTED); }
+
+	/*
+	 * Put a flit on a VC, which gives a new value for a mark
+	 */
+	public int withVC(int flit, int vc) {
+		if(flit >= 0) {
+			setInt(flit, VC, vc);
+			return flit;
+		}
+		return (flit & 1) == 0 ? bodyMark(vc) : tailMark(vc);
+	}
+}
@@ -10,27 +10,35 @@ import sim.Config;
 
 public class InputPort extends Port {
 
-	private Flit      m_inputFlit;
+	private int       m_inputFlit;
+	private FlitArena m_arena;
 	private InputVC[] m_vcs;
 	private boolean   m_sendCredit;
 	
+	// Masks of the VCs that are active or waiting for a VC with a flit to route, 
+	// and of those with any flits buffered
+	private long      m_ready;
+	private long      m_hasFlits;
+	
 	public InputPort(Console console, int nodeId, int portNum, Link link, int numVCs) {
 		super(console, nodeId, portNum, link);
 		m_vcs = new InputVC[numVCs];
 		for(int i=0; i<m_vcs.length; i++)
-			m_vcs[i] = new InputVC(portNum, i, console, Config.bufferSize());
+			m_vcs[i] = new InputVC(this, i, console, Config.bufferSize());
+		m_ready = 0;
+		m_hasFlits = 0;
 		m_sendCredit = false;
-		m_inputFlit = null;
+		m_inputFlit = FlitArena.NONE;
+		m_arena = FlitArena.current();
 	}
 	
 	/*
 	 * Read an input flit and add it to a VC buffer
 	 */
 	public void readInputFlit() {
-		if(m_inputFlit != null) {
-			m_vcs[m_inputFlit.getVC()].addFlit(m_inputFlit);
-			//console("I["+getPortNum()+":"+m_inputFlit.getVC()+"] received flit "+m_inputFlit.toShortStr());
-			m_inputFlit = null;
+		if(m_inputFlit != FlitArena.NONE) {
+			m_vcs[m_arena.getVC(m_inputFlit)].addFlit(m_inputFlit);
+			m_inputFlit = FlitArena.NONE;
 		}
 	}
 	
@@ -39,21 +47,15 @@ public class InputPort extends Port {
 	 * for a VC to be allocated, then take the flit so the router can try to allocate 
 	 * it one
 	 */
-	public Flit peekNextFlit() {
-		for(int j=1; j<m_vcs.length+1; j++) {
-			int index = (getCurrVC() + j) % m_vcs.length;
-			if((m_vcs[index].isActive() || m_vcs[index].isWaitingVC()) /*&& m_vcs[index].hasFlit()*/) {
-				if(m_vcs[index].peekFlit() != null) {
-					setCurrVC(index);
-					//System.out.println("Input set currVC = "+getCurrVC());
-					return m_vcs[index].peekFlit();
-				}
-			}
-		}
-		return null;
+	public int peekNextFlit() {
+		int index = nextVC(m_ready);
+		if(index == -1)
+			return FlitArena.NONE;
+		setCurrVC(index);
+		return m_vcs[index].peekFlit();
 	}
 	
-	public Flit takeNextFlit() {
+	public int takeNextFlit() {
 		m_sendCredit = true;
 		return m_vcs[getCurrVC()].takeFlit();
 	}
@@ -63,7 +65,7 @@ public class InputPort extends Port {
 	 */
 	public void writeOuputCredit() {
 		if(m_sendCredit) {
-			getLink().setInputCredit(new Credit(getCurrVC()));
+			getLink().setInputCredit(getCurrVC());
 			m_sendCredit = false;
 			//console("I["+getPortNum()+":"+getCurrVC()+"] sending a credit back");
 			//System.out.println("sending a credit back for VC "+getCurrVC());
@@ -85,11 +87,26 @@ public class InputPort extends Port {
 		m_vcs[vcIndex].setupConnection(outputPort, outputVC);
 	}
 	
+	/*
+	 * Called by a VC when its state or flits change
+	 */
+	void vcChanged(int vcIndex, boolean ready, boolean hasFlits) {
+		m_ready = setBit(m_ready, vcIndex, ready);
+		m_hasFlits = setBit(m_hasFlits, vcIndex, hasFlits);
+	}
+	
+	/*
+	 * Whether there is a flit to read or buffered, or a credit to send
+	 */
+	public boolean isBusy() {
+		return m_inputFlit != FlitArena.NONE || m_sendCredit || m_hasFlits != 0;
+	}
+	
 	public void reset() {
 		for(InputVC vc : m_vcs)
 			vc.resetState();
 		m_sendCredit = false;
-		m_inputFlit = null;
+		m_inputFlit = FlitArena.NONE;
 		setCurrVC(0);
 	}
 	
@@ -103,10 +120,11 @@ public class InputPort extends Port {
 		return s;
 	}
 	
-	public int  getUpstreamNode()                       { return getLink().getFromPort().getNodeId(); }
+	public int  numVCs()                                { return m_vcs.length; }
+	public int  getUpstreamNode()                       { return getLink().getFromId(); }
 	public int  getOutputPort(int vcIndex)              { return m_vcs[vcIndex].getOutputPort(); }
 	public int  getOutputVC(int vcIndex)                { return m_vcs[vcIndex].getOuputVC(); }
-	public void setFlitInput(Flit flit)                 { m_inputFlit = flit; }
+	public void setFlitInput(int flit)                  { m_inputFlit = flit; }
 	public void setWaitingVC(int vcIndex)               { m_vcs[vcIndex].setWaitingVC(); }
 	public void incCurrVCCredits()                      { m_vcs[getCurrVC()].incCredits(); }
 }
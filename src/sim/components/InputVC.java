@@ -8,30 +8,34 @@ package sim.components;
 
 public class InputVC extends VirtualChannel {
 
-	private int    m_connectedOutputPort;
-	private int    m_connectedOutputVC;
-	private Buffer m_buffer;
+	private InputPort m_port;
+	private int       m_connectedOutputPort;
+	private int       m_connectedOutputVC;
+	private Buffer    m_buffer;
 	
-	public InputVC(int portNum, int index, Console console, int bufferSize) {
-		super(portNum, index, console);
+	public InputVC(InputPort port, int index, Console console, int bufferSize) {
+		super(port.getPortNum(), index, console);
+		m_port = port;
 		m_buffer = new Buffer(bufferSize, console);
 	}
 	
-	public boolean addFlit(Flit flit) {
+	public boolean addFlit(int flit) {
 		if(isIdle())
 			setActive();
-		return m_buffer.offerFlit(flit);
+		boolean added = m_buffer.offerFlit(flit);
+		changed();
+		return added;
 	}
 	
-	public Flit takeFlit() {
+	public int takeFlit() {
 		if(isActive() || isWaitingVC()) {
-			Flit flit = m_buffer.takeFlit();
-			if(flit instanceof TailFlit)
+			int flit = m_buffer.takeFlit();
+			if(getArena().isTail(flit))
 				closeConnection();
 			decCredits();
 			return flit;
 		} else {
-			return null;
+			return FlitArena.NONE;
 		}
 	}
 	
@@ -45,11 +49,11 @@ public class InputVC extends VirtualChannel {
 	}
 	
 	public void closeConnection() {
-		console("closing connection I["+getPortNum()+":"+getIndex()+"] state: "+getStateStack());
+		probe().closedInputConnection(getPortNum(), getIndex(), getState());
 		popState();
 	}
 	
-	public void replaceHeadFlit(Flit flit) {
+	public void replaceHeadFlit(int flit) {
 		m_buffer.replaceHeadFlit(flit);
 		incCredits();
 	}
@@ -59,15 +63,19 @@ public class InputVC extends VirtualChannel {
 		resetVCState();
 	}
 	
+	protected void changed() {
+		m_port.vcChanged(getIndex(), (isActive() || isWaitingVC()) && m_buffer.hasFlits(), m_buffer.hasFlits());
+	}
+	
 	public String toString() {
 		String to = (isIdle()?"-":"O["+m_connectedOutputPort+":"+m_connectedOutputVC+"]");
 		return String.format("%-12s%-12s%-12s%12s", to, getStateStr(), getCredits()+"", m_buffer.toString());
 	}
 
-	public Flit     peekFlit()                  { return m_buffer.peekFlit(); }
+	public int      peekFlit()                  { return m_buffer.peekFlit(); }
 	public boolean  isEmpty()                   { return !m_buffer.hasFlits(); }
 	public int      getOutputPort()             { return m_connectedOutputPort; }
 	public int      getOuputVC()                { return m_connectedOutputVC; }
 	public int      freeSlots()                 { return m_buffer.freeSlots(); }
-	public boolean  hasFlit()                   { return peekFlit() != null; }
+	public boolean  hasFlit()                   { return m_buffer.hasFlits(); }
 }
@@ -6,41 +6,57 @@
  */ 
 package sim.components;
 
-import java.util.LinkedList;
+import sim.Clock;
+import sim.Simulator;
+import sim.engine.ActiveSet;
 
 public class Link implements Component {
 	
 	private int                 m_id;
 	
 	// Input objects
-	private Flit                m_inputFlit;
-	private Credit              m_inputCredit;
+	private int                 m_inputFlit;
+	private int                 m_inputCredit;
 	
 	// State objects
 	private int                 m_delay;
 	private OutputPort          m_fromPort;
 	private InputPort           m_toPort;
-	private LinkedList<Flit>    m_transitFlits;
-	private LinkedList<Credit>  m_transitCredits;
+	private Mailbox             m_transitFlits;
+	private Mailbox             m_transitCredits;
+	private int                 m_numTransit;
+	private ActiveSet           m_activeSet;
+	private int                 m_flitsCarried;
+	
+	// The clocks of the nodes at each end, which are only different when the 
+	// link is a boundary between partitions that are advanced separately
+	private Clock               m_fromClock;
+	private Clock               m_toClock;
+	
+	// Boundary objects, when the ends of the link are in different partitions
+	private Mailbox             m_flitMailbox;
+	private Mailbox             m_creditMailbox;
 	
 	public Link(int id, int delay) {
 		super();
 		m_id             = id;
 		m_delay          = delay;
-		m_inputFlit      = null;
-		m_inputCredit    = null;
-		m_transitFlits   = new LinkedList<Flit>();
-		m_transitCredits = new LinkedList<Credit>();
+		m_inputFlit      = FlitArena.NONE;
+		m_inputCredit    = -1;
+		m_transitFlits   = new Mailbox(delay, 0);
+		m_transitCredits = new Mailbox(delay, 0);
+		m_numTransit     = 0;
+		m_fromClock      = Simulator.getClock();
+		m_toClock        = m_fromClock;
 	}
 	
 	/*
-	 * If the link is empty take the next queued flit and transfer it
+	 * Take the signals written to the link in the last cycle and stamp them with 
+	 * the cycle they arrive in
 	 */
 	public void update() {
-		//System.out.println("link "+m_id+" numFlits="+m_transitFlits.size()+", numCredits "+m_transitCredits.size());
 		readInputFlits();
 		readInputCredits();
-		transmitSignals();
 	}
 
 	/*
@@ -53,68 +69,158 @@ public class Link implements Component {
 	}
 	
 	/*
-	 * Read an input flit
+	 * A signal written in the copy phase of one cycle is read in the next, and is 
+	 * delivered in the copy phase a link delay after it was written
 	 */
 	private void readInputFlits() {
-		if(m_inputFlit != null) {
-			m_inputFlit.zeroTransitCycles();
-			m_transitFlits.add(m_inputFlit);
-			m_inputFlit = null;
+		if(m_inputFlit != FlitArena.NONE) {
+			m_transitFlits.post(m_fromClock.now() + m_delay - 1, m_inputFlit);
+			m_inputFlit = FlitArena.NONE;
+			m_numTransit++;
 		}
 	}
 	
-	/*
-	 * Read an input credit
-	 */
 	private void readInputCredits() {
-		if(m_inputCredit != null) {
-			m_inputCredit.zeroTransitCycles();
-			m_transitCredits.add(m_inputCredit);
-			m_inputCredit = null;
+		if(m_inputCredit != -1) {
+			m_transitCredits.post(m_fromClock.now() + m_delay - 1, m_inputCredit);
+			m_inputCredit = -1;
+			m_numTransit++;
 		}
 	}
 	
-	private void transmitSignals() {
-		for(Flit f : m_transitFlits)
-			f.incTransitCycles();
-		for(Credit c : m_transitCredits)
-			c.incTransitCycles();
-	}
-	
 	private void deliverFlit() {
-		if(!m_transitFlits.isEmpty()) {
-			if(m_transitFlits.getFirst().getTransitCycles() == m_delay) {
-				Flit flit = m_transitFlits.removeFirst();
-				m_toPort.setFlitInput(flit);
-				//System.out.println("Link "+m_id+" delivered flit "+flit);
-			}
+		if(m_numTransit == 0)
+			return;
+		int flit = m_transitFlits.take(m_fromClock.now());
+		if(flit != FlitArena.NONE) {
+			m_numTransit--;
+			m_toPort.setFlitInput(flit);
+			wake(m_toPort);
 		}
 	}
 	
 	private void deliverCredit() {
-		if(!m_transitCredits.isEmpty()) {
-			if(m_transitCredits.getFirst().getTransitCycles() == m_delay) {
-				m_fromPort.setCreditInput(m_transitCredits.removeFirst());
-				//System.out.println("Link "+m_id+" delivered credit");
-			}
+		if(m_numTransit == 0)
+			return;
+		int vc = m_transitCredits.take(m_fromClock.now());
+		if(vc != -1) {
+			m_numTransit--;
+			m_fromPort.setCreditInput(vc);
 		}
 	}
 	
 	public void reset() {
 		m_transitFlits.clear();
 		m_transitCredits.clear();
-		m_inputFlit = null;
-		m_inputCredit = null;
+		m_numTransit = 0;
+		m_inputFlit = FlitArena.NONE;
+		m_inputCredit = -1;
+		if(isBoundary()) {
+			m_flitMailbox.clear();
+			m_creditMailbox.clear();
+		}
+	}
+	
+	/*
+	 * Make the link a boundary between partitions that are advanced up to a window 
+	 * of cycles apart. Flits and credits are then posted straight to a mailbox 
+	 * when they are written, due a link delay later, rather than being passed 
+	 * along the link, and each side takes its signals from the mailbox itself
+	 */
+	public void makeBoundary(int window) {
+		m_flitMailbox = new Mailbox(m_delay, window);
+		m_creditMailbox = new Mailbox(m_delay, window);
+	}
+	
+	/*
+	 * Called by the partition of the receiving node after its copy phase
+	 */
+	public void deliverBoundaryFlit() {
+		int flit = m_flitMailbox.take(m_toClock.now());
+		if(flit != FlitArena.NONE) {
+			m_toPort.setFlitInput(flit);
+			wake(m_toPort);
+		}
+	}
+	
+	/*
+	 * Called by the partition of the sending node after its copy phase
+	 */
+	public void deliverBoundaryCredit() {
+		int vc = m_creditMailbox.take(m_fromClock.now());
+		if(vc != -1) {
+			m_fromPort.setCreditInput(vc);
+			wake(m_fromPort);
+		}
+	}
+	
+	/*
+	 * Return the number of flits written to the link since the last call
+	 */
+	public int takeFlitsCarried() {
+		int flits = m_flitsCarried;
+		m_flitsCarried = 0;
+		return flits;
+	}
+	
+	public boolean isBoundaryEmpty() {
+		return !isBoundary() || (m_flitMailbox.isEmpty() && m_creditMailbox.isEmpty());
+	}
+	
+	/*
+	 * Wake the node of a port so that its router half is stepped in the next cycle. 
+	 * The port is only looked at with an active set, as a compiled network leaves 
+	 * the router end of a processor link unconnected
+	 */
+	private void wake(Port port) {
+		if(m_activeSet != null)
+			m_activeSet.wake(port.getNodeId());
+	}
+	
+	/*
+	 * Take the signals written to the link in this cycle, for a compiled network 
+	 * that carries them itself
+	 */
+	int takeInputFlit() {
+		int flit = m_inputFlit;
+		m_inputFlit = FlitArena.NONE;
+		return flit;
+	}
+	
+	int takeInputCredit() {
+		int vc = m_inputCredit;
+		m_inputCredit = -1;
+		return vc;
+	}
+	
+	public boolean isBusy() {
+		return m_inputFlit != FlitArena.NONE || m_inputCredit != -1 || m_numTransit != 0;
+	}
+	
+	/*
+	 * Links are updated by the node that drives them, so any input wakes that node
+	 */
+	public void setInputFlit(int flit) {
+		m_flitsCarried++;
+		if(isBoundary()) {
+			m_flitMailbox.post(m_fromClock.now() + m_delay, flit);
+			return;
+		}
+		m_inputFlit = flit;
+		wake(m_fromPort);
+	}
+	
+	public void setInputCredit(int vc) {
+		if(isBoundary()) {
+			m_creditMailbox.post(m_toClock.now() + m_delay, vc);
+			return;
+		}
+		m_inputCredit = vc;
+		wake(m_fromPort);
 	}
 	
 	public String toString() {
-		String s = m_id+"\t";
-		for(Flit f : m_transitFlits)
-			s += f+"("+f.getTransitCycles()+") ";
-		s += "\t";
-		for(Credit c : m_transitCredits)
-			s += c+"("+c.getTransitCycles()+") ";
-		return s;
+		return m_id+"\t"+m_transitFlits+"\t"+m_transitCredits;
 	}
 	
 	public void       connectFrom(OutputPort fromPort)   { m_fromPort = fromPort; }
@@ -122,10 +228,16 @@ public class Link implements Component {
 	public String     getTitle()                         { return "Link "+m_id; }
 	public int        getId()                            { return m_id; }
 	public InputPort  getToPort()                        { return m_toPort; }
+	public int        getToId()                          { return m_toPort.getNodeId(); }
+	public int        getFromId()                        { return m_fromPort.getNodeId(); }
 	public OutputPort getFromPort()                      { return m_fromPort; }
 	public int        getDelay()                         { return m_delay; }
-	public void       setInputFlit(Flit flit)            { m_inputFlit = flit; }
-	public void       setInputCredit(Credit credit)      { m_inputCredit = credit; }
+	public void       setActiveSet(ActiveSet activeSet)  { m_activeSet = activeSet; }
+	public void       setFromClock(Clock clock)          { m_fromClock = clock; }
+	public void       setToClock(Clock clock)            { m_toClock = clock; }
+	public boolean    isBoundary()                       { return m_flitMailbox != null; }
+	public Mailbox    getFlitMailbox()                   { return m_flitMailbox; }
+	public Mailbox    getCreditMailbox()                 { return m_creditMailbox; }
 	public int        getWeight()                        { return m_delay; }
 	public boolean    equals(Link link)                  { return getId() == link.getId(); }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.util.List;
+
+/*
+ * Carries signals in one direction over a link. Each signal is posted with the
+ * cycle it is due to be delivered in and is taken by the receiving side in that
+ * cycle, so nothing touches a signal while it is in transit. A signal is an int:
+ * the handle of a flit, or the index of the VC that a credit returns, with -1 for
+ * none, so carrying one allocates nothing.
+ *
+ * A link carries at most one signal per cycle, so a slot per cycle is enough. The
+ * receiver only takes signals due in the current window of cycles and the sender
+ * only posts signals due at least one link delay ahead, so with a slot for each
+ * cycle of the window and the delay the two sides never touch the same slot. A
+ * link inside a partition has a window of zero; one that crosses between two
+ * partitions, which may be advanced by different threads, has the window the
+ * partitions may drift apart by.
+ */
+public class Mailbox {
+
+	private int[]  m_items;
+	private long[] m_due;
+
+	public Mailbox(int delay, int window) {
+		m_items = new int[delay + window];
+		m_due = new long[delay + window];
+		clear();
+	}
+
+	public void post(long due, int item) {
+		int slot = (int) (due % m_items.length);
+		if(m_items[slot] != -1)
+			throw new IllegalStateException("mailbox slot "+slot+" is already full");
+		m_items[slot] = item;
+		m_due[slot] = due;
+	}
+
+	/*
+	 * Take the signal due in a cycle, or -1 if there is none
+	 */
+	public int take(long clock) {
+		int slot = (int) (clock % m_items.length);
+		if(m_items[slot] == -1 || m_due[slot] != clock)
+			return -1;
+		int item = m_items[slot];
+		m_items[slot] = -1;
+		return item;
+	}
+
+	/*
+	 * Take every signal, in any order, with the cycles they are due
+	 */
+	public void drainTo(List<Long> due, List<Integer> items) {
+		for(int i=0; i<m_items.length; i++) {
+			if(m_items[i] != -1) {
+				due.add(m_due[i]);
+				items.add(m_items[i]);
+				m_items[i] = -1;
+			}
+		}
+	}
+	
+	public String toString() {
+		String s = "";
+		for(int i=0; i<m_items.length; i++)
+			if(m_items[i] != -1)
+				s += m_items[i]+"("+m_due[i]+") ";
+		return s;
+	}
+	
+	public boolean isEmpty() {
+		for(int item : m_items)
+			if(item != -1)
+				return false;
+		return true;
+	}
+
+	public void clear() {
+		for(int i=0; i<m_items.length; i++) {
+			m_items[i] = -1;
+			m_due[i] = -1;
+		}
+	}
+}
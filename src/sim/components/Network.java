@@ -22,37 +22,108 @@ import org.jgrapht.ext.DOTExporter;
 
 import sim.Config;
 import sim.Utilities;
+import sim.engine.DistributedEngine;
+import sim.engine.Engine;
+import sim.stats.Stats;
 import sim.routing.DimOrder;
 import sim.routing.Minimal;
+import sim.routing.RoutingFunction;
 import sim.routing.UpDown;
 import sim.topology.Topology;
+import sim.topology.TopologyGraph;
 import sim.topology.Visualise;
+import sim.traffic.TraceEvent;
+import sim.traffic.TraceParser;
 
+/*
+ * The nodes of a network and the links between them, built from the graph of its 
+ * topology. A process of a distributed engine only builds its own nodes and the 
+ * links to and from them, so the nodes and links are held by id with null for 
+ * those of other processes, and the routers that are built are held in node order.
+ * A compiled engine steps the routers and links itself, so for it the nodes are 
+ * built without them and the routing functions are only held here.
+ */
 public class Network implements DirectedGraph<Router, RouterLink> {
 
-	private Node[]       m_nodes;
-	private Router[]     m_routers;
-	private RouterLink[] m_links;
+	private TopologyGraph m_graph;
+	private int[]         m_processOf;
+	private Node[]        m_nodes;
+	private Node[]        m_localNodes;
+	private Router[]      m_routers;
+	private RouterLink[]  m_links;
+	private RoutingFunction[] m_routingFns;
+	private Engine        m_engine;
 	
 	/*
 	 * Construct a new network with a topolgy, routing and traffic
 	 */
 	public Network() {
 		
-		// Check network parameters
-		if(Config.availableVCs() > Config.numVCs()) {
-			System.out.println("Error: insufficient virtual channels");
-			return;
-		}
+		m_graph = Topology.createTopology();
+		System.out.println("Created network topology of "+m_graph.numNodes()+" nodes\n");
+		
+		// A distributed engine is partitioned before the network is built
+		m_processOf = null;
+		if(Config.engine() == Config.EngineType.DISTRIBUTED)
+			m_processOf = DistributedEngine.partition(m_graph);
 		
 		// Create network objects
-		m_nodes = Topology.createTopology();
-		m_routers = getNodeRouters();
-		m_links = getRouterLinks();
+		buildNodes();
 		
 		//createTopologyImage(".");
 		
-		System.out.println("Created network topology of "+m_nodes.length+" nodes\n");
+		m_engine = Engine.createEngine(this);
+	}
+	
+	/*
+	 * Create the nodes of this process, then each link with an end at one of them. 
+	 * The links are created in order, each with the output port then the input 
+	 * port it connects
+	 */
+	private void buildNodes() {
+		int numNodes = m_graph.numNodes();
+		int delay = Config.linkDelay();
+		boolean compiled = Config.engine() == Config.EngineType.COMPILED;
+		List<Node> local = new LinkedList<Node>();
+		m_nodes = new Node[numNodes];
+		m_routingFns = new RoutingFunction[numNodes];
+		for(int i=0; i<numNodes; i++) {
+			if(isLocal(i)) {
+				m_nodes[i] = compiled ? new Node(i, numNodes) : 
+					new Node(i, numNodes, m_graph.inDegree(i), m_graph.outDegree(i));
+				local.add(m_nodes[i]);
+			}
+		}
+		m_localNodes = local.toArray(new Node[local.size()]);
+		
+		m_links = new RouterLink[m_graph.numLinks()];
+		if(compiled) {
+			m_routers = new Router[0];
+			return;
+		}
+		m_routers = getNodeRouters();
+		
+		for(int l=0; l<m_links.length; l++) {
+			int from = m_graph.getFrom(l);
+			int to = m_graph.getTo(l);
+			if(!isLocal(from) && !isLocal(to))
+				continue;
+			m_links[l] = new RouterLink(l, delay, from, to);
+			if(isLocal(from))
+				m_nodes[from].getRouter().connectTo(m_graph.getFromPort(l), m_links[l]);
+			if(isLocal(to))
+				m_nodes[to].getRouter().connectFrom(m_graph.getToPort(l), m_links[l]);
+		}
+		
+		for(Node n : m_localNodes)
+			n.finishConnecting();
+	}
+	
+	/*
+	 * Whether a node is built by this process
+	 */
+	public boolean isLocal(int node) {
+		return m_processOf == null || m_processOf[node] == Config.rank();
 	}
 	
 	public void initRouting() {
@@ -75,51 +146,120 @@ public class Network implements DirectedGraph<Router, RouterLink> {
 			break;
 		}
 		
+		m_engine.initRouting();
 		System.out.println("Initialised routing tables for "+Config.routing().name()+"\n");
 	}
 	
-	/*private void initTraffic() {
+	public void initTraffic() {
 		switch(Config.traffic()) {
 		case TRACE:
 			LinkedList<TraceEvent>[] m_traces = TraceParser.read(Config.traceFile());
-			for(int i=0; i<m_nodes.length; i++)
-				m_nodes[i].addTrace(m_traces[i]);
+			for(Node n : m_localNodes)
+				n.addTrace(m_traces[n.getId()]);
 			break;
 		}
-	}*/
+	}
 
 	public void step() {
-		for(Node n : m_nodes)
-			n.update();
-		
-		for(Node n : m_nodes)
-			n.copy();
+		m_engine.step();
 	}
 	
+	/*
+	 * Advance by up to a number of cycles, returning how many were done
+	 */
+	public int run(int cycles) {
+		return m_engine.run(cycles);
+	}
+	
+	/*
+	 * Every flit is dropped, so once the nodes have been reset all of the flit 
+	 * records are free
+	 */
 	public void reset() {
-		for(Node n : m_nodes)
+		for(Node n : m_localNodes)
 			n.reset();
+		
+		// Links from the nodes of other processes are not reset by any node here
+		for(RouterLink l : m_links)
+			if(l != null && !isLocal(l.getFromId()))
+				l.reset();
+		m_engine.reset();
+		FlitArena.current().reset();
 	}
 	
-	private RouterLink[] getRouterLinks() {
-		List<RouterLink> links = new LinkedList<RouterLink>();
-		for(int i=0; i<m_nodes.length; i++)
-			links.addAll(m_nodes[i].getRouter().linkSet());
-		return links.toArray(new RouterLink[links.size()]);
+	/*
+	 * Stop the threads of the engine and free its state, when the network is
+	 * replaced or the simulation is finished with
+	 */
+	public void shutdown() {
+		m_engine.shutdown();
+	}
+	
+	/*
+	 * Combine the statistics recorded by the processors, then by the processes 
+	 * of the engine, in the sample period
+	 */
+	public void mergeStats() {
+		Stats.mergeRecorders();
+		m_engine.mergeStats();
+	}
+	
+	/*
+	 * Whether there are no flits or credits anywhere in the network
+	 */
+	public boolean isQuiescent() {
+		if(!m_engine.isIdle())
+			return false;
+		for(Node n : m_localNodes)
+			if(!n.isQuiescent())
+				return false;
+		return true;
+	}
+	
+	/*
+	 * The earliest cycle from the global cycle that any processor could next 
+	 * generate a packet
+	 */
+	public long nextEventCycle(long now) {
+		long next = Long.MAX_VALUE;
+		for(Node n : m_localNodes)
+			next = Math.min(next, n.nextEventCycle(now));
+		return next;
+	}
+	
+	/*
+	 * Set the routing function of a node, and of its router if it has one
+	 */
+	public void setRoutingFn(int node, RoutingFunction fn) {
+		m_routingFns[node] = fn;
+		if(m_nodes[node].getRouter() != null)
+			m_nodes[node].getRouter().setRoutingFn(fn);
+	}
+	
+	/*
+	 * The output port of a node that leads to a neighbour, found over the topology 
+	 * as the node may have no router. Where there are parallel links the first 
+	 * port is taken, as the router does
+	 */
+	public int getOutputPort(int node, int neighbour) {
+		int port = -1;
+		for(int l : m_graph.getOutLinks(node))
+			if(m_graph.getTo(l) == neighbour && (port == -1 || m_graph.getFromPort(l) < port))
+				port = m_graph.getFromPort(l);
+		if(port == -1)
+			System.err.println("Error: could not get downstream nodeId "+neighbour);
+		return port;
 	}
 	
 	private Router[] getNodeRouters() {
-		Router[] routers = new Router[m_nodes.length];
-		for(int i=0; i<m_nodes.length; i++)
-			routers[i] = m_nodes[i].getRouter();
+		Router[] routers = new Router[m_localNodes.length];
+		for(int i=0; i<m_localNodes.length; i++)
+			routers[i] = m_localNodes[i].getRouter();
 		return routers;
 	}
 	
 	public int numLinks() {
-		int count = 0;
-		for(Router r : m_routers)
-			count += r.outDegree();
-		return count;
+		return m_graph.numLinks();
 	}
 	
 	public void createTopologyImage(String directory) {
@@ -140,25 +280,24 @@ public class Network implements DirectedGraph<Router, RouterLink> {
 	}
 	
 	public int getEdgeId(Router routerFrom, Router routerTo) {
-		for(RouterLink l : m_links) {
-			if(l.getFrom().equals(routerFrom) && l.getTo().equals(routerTo))
-				return l.getId();
-		}
-		return -1;
+		RouterLink l = getEdge(routerFrom, routerTo);
+		return l != null ? l.getId() : -1;
 	}
 	
 
 	public RouterLink getLink(int id) {
-		for(RouterLink l : m_links) {
-			if(l.getId() == id)
-				return l;
-		}
-		return null;
+		return m_links[id];
 	}
 	
-	public int      numNodes()   { return m_nodes.length; }
-	public Node[]   getNodes()   { return m_nodes; }
-	public Router[] getRouters() { return m_routers; }
+	public int           numNodes()       { return m_nodes.length; }
+	public Node[]        getNodes()       { return m_nodes; }
+	public Node[]        getLocalNodes()  { return m_localNodes; }
+	public Router[]      getRouters()     { return m_routers; }
+	public RouterLink[]  getLinks()       { return m_links; }
+	public RoutingFunction getRoutingFn(int node) { return m_routingFns[node]; }
+	public TopologyGraph getGraph()       { return m_graph; }
+	public int[]         getProcessOf()   { return m_processOf; }
+	public String        dumpEngineInfo() { return m_engine.dumpInfo(); }
 	
 	/*
 	 * JGraphT methods
@@ -168,20 +307,30 @@ public class Network implements DirectedGraph<Router, RouterLink> {
 	public Set<RouterLink> incomingEdgesOf(Router r)   { return r.incomingLinks(); }
 	public Set<RouterLink> outgoingEdgesOf(Router r)   { return r.outgoingLinks(); }
 	public Set<RouterLink> edgesOf(Router r)           { return r.linkSet(); }
-	public Set<RouterLink> edgeSet()                   { return new HashSet<RouterLink>(Arrays.asList(m_links)); }
+	public Set<RouterLink> edgeSet()                   { return new HashSet<RouterLink>(links()); }
 	public Set<Router>     vertexSet()                 { return new HashSet<Router>(Arrays.asList(m_routers)); }
 	public Router          getEdgeSource(RouterLink l) { return l.getFrom(); }
 	public Router          getEdgeTarget(RouterLink l) { return l.getTo(); }
 	public double          getEdgeWeight(RouterLink l) { return l.getDelay(); }
 	
-	public boolean containsEdge(RouterLink link) {
+	/*
+	 * The links of this process
+	 */
+	private List<RouterLink> links() {
+		List<RouterLink> links = new LinkedList<RouterLink>();
 		for(RouterLink l : m_links)
+			if(l != null) links.add(l);
+		return links;
+	}
+	
+	public boolean containsEdge(RouterLink link) {
+		for(RouterLink l : links())
 			if(l.equals(link)) return true;
 		return false;
 	}
 
 	public boolean containsEdge(Router src, Router dest) {
-		for(RouterLink l : m_links)
+		for(RouterLink l : links())
 			if(l.connects(src, dest)) return true;
 		return false;
 	}
@@ -194,13 +343,13 @@ public class Network implements DirectedGraph<Router, RouterLink> {
 
 	public Set<RouterLink> getAllEdges(Router src, Router dest) {
 		HashSet<RouterLink> links = new HashSet<RouterLink>();
-		for(RouterLink l : m_links)
+		for(RouterLink l : links())
 			if(l.connects(src, dest)) links.add(l);
 		return links.size() > 0 ? links : null;
 	}
 
 	public RouterLink getEdge(Router src, Router dest) {
-		for(RouterLink l : m_links)
+		for(RouterLink l : links())
 			if(l.connects(src, dest)) return l;
 		return null;
 	}
@@ -11,12 +11,17 @@ import java.util.Set;
 
 import javax.swing.JPanel;
 
+import sim.Clock;
 import sim.Config;
+import sim.engine.ActiveSet;
+import sim.stats.Stats;
 import sim.traffic.TraceEvent;
 
 /*
  * A node represents a single processor and router element (including links between) 
- * in a network. Outgoing link components are updated() and copied() here 
+ * in a network. Outgoing link components are updated() and copied() here. For an 
+ * engine that steps the routers and links itself a node is built without a router, 
+ * and only holds the processor and its links
  */
 public class Node implements Component {
 
@@ -26,19 +31,46 @@ public class Node implements Component {
 	private ProcessorLink m_procRouter;
 	private ProcessorLink m_routerProc;
 	private RouterLink[]  m_outputLinks;
+	private boolean       m_debug;
 	
-	public Node(int id, int numInputs, int numOutputs) {
+	public Node(int id, int numNodes, int numInputs, int numOutputs) {
 		m_id          = id;
 		m_procRouter  = new ProcessorLink(1);
 		m_routerProc  = new ProcessorLink(1);
 		m_router      = new Router(id, m_procRouter, m_routerProc, numInputs, numOutputs);
-		m_processor   = new Processor(id, m_routerProc, m_procRouter);
+		m_processor   = new Processor(id, numNodes, m_routerProc, m_procRouter);
 		m_outputLinks = null;
+		m_debug       = Config.debugMode();
+	}
+	
+	public Node(int id, int numNodes) {
+		m_id          = id;
+		m_procRouter  = new ProcessorLink(1);
+		m_routerProc  = new ProcessorLink(1);
+		m_router      = null;
+		m_processor   = new Processor(id, numNodes, m_routerProc, m_procRouter);
+		m_outputLinks = new RouterLink[0];
+		m_debug       = Config.debugMode();
 	}
 
 	public void update() {
-		
+		updateProcessor();
+		updateRouter();
+	}
+	
+	/*
+	 * The processor and router halves of the update phase do not share any state 
+	 * (they only communicate through the processor links in the copy phase) so an 
+	 * engine may update them separately
+	 */
+	public void updateProcessor() {
 		m_processor.update();
+		
+		if(m_debug)
+			m_processor.updateStateConsole();
+	}
+	
+	public void updateRouter() {
 		m_router.update();
 		
 		m_procRouter.update();
@@ -47,14 +79,20 @@ public class Node implements Component {
 		for(Link l : m_outputLinks)
 			l.update();
 		
-		if(Config.debugMode()) {
-			m_processor.updateStateConsole();
+		if(m_debug)
 			m_router.updateStateConsole();
-		}
 	}
 	
 	public void copy() {
+		copyProcessor();
+		copyRouter();
+	}
+	
+	public void copyProcessor() {
 		m_processor.copy();
+	}
+	
+	public void copyRouter() {
 		m_router.copy();
 		
 		m_procRouter.copy();
@@ -63,12 +101,75 @@ public class Node implements Component {
 		for(Link l : m_outputLinks)
 			l.copy();
 	}
+	
+	/*
+	 * Whether the router or any of the links it drives hold flits or credits. If not, 
+	 * the router half of the update and copy phases has nothing to do until one of 
+	 * the links wakes the node up
+	 */
+	public boolean isBusy() {
+		if((m_router != null && m_router.isBusy()) || m_procRouter.isBusy() || m_routerProc.isBusy())
+			return true;
+		for(Link l : m_outputLinks)
+			if(l.isBusy())
+				return true;
+		return false;
+	}
+	
+	/*
+	 * Return the number of flits moved onto links by this node since the last call, 
+	 * as a measure of how much work it is to step
+	 */
+	public int takeFlitsMoved() {
+		int flits = m_procRouter.takeFlitsCarried() + m_routerProc.takeFlitsCarried();
+		for(Link l : m_outputLinks)
+			flits += l.takeFlitsCarried();
+		return flits;
+	}
+	
+	public boolean isQuiescent() {
+		return !isBusy() && m_processor.isIdle();
+	}
+	
+	/*
+	 * The links into the router are given the active set too, as a link from the 
+	 * node of another process has no node here to give it one
+	 */
+	public void setActiveSet(ActiveSet activeSet) {
+		m_processor.setActiveSet(activeSet);
+		m_procRouter.setActiveSet(activeSet);
+		m_routerProc.setActiveSet(activeSet);
+		for(Link l : m_outputLinks)
+			l.setActiveSet(activeSet);
+		if(m_router != null)
+			for(Link l : m_router.incomingLinks())
+				l.setActiveSet(activeSet);
+	}
+
+	/*
+	 * Step the node on the clock of a partition rather than the global clock. 
+	 * The links into the router take it as the clock of their receiving end
+	 */
+	public void setClock(Clock clock) {
+		m_processor.setClock(clock);
+		m_procRouter.setFromClock(clock);
+		m_procRouter.setToClock(clock);
+		m_routerProc.setFromClock(clock);
+		m_routerProc.setToClock(clock);
+		for(Link l : m_outputLinks)
+			l.setFromClock(clock);
+		if(m_router != null)
+			for(Link l : m_router.incomingLinks())
+				l.setToClock(clock);
+	}
 
 	public void reset() {
 		m_processor.reset();
 		m_processor.resetConsoles();
-		m_router.reset();
-		m_router.resetConsoles();
+		if(m_router != null) {
+			m_router.reset();
+			m_router.resetConsoles();
+		}
 		
 		m_procRouter.reset();
 		m_routerProc.reset();
@@ -77,10 +178,6 @@ public class Node implements Component {
 			l.reset();
 	}
 	
-	public void connectTo(Node to, int fromPort, int toPort) {
-		m_router.connectTo(to.getRouter(), fromPort, toPort);
-	}
-	
 	public void finishConnecting() {
 		Set<RouterLink> links = m_router.outgoingLinks();
 		m_outputLinks = links.toArray(new RouterLink[m_router.outgoingLinks().size()]);
@@ -90,7 +187,11 @@ public class Node implements Component {
 	public JPanel    getRouterConsole()                     { return m_router.getConsole(); }
 	public JPanel    getProcConsole()                       { return m_processor.getConsole(); }
 	public Router    getRouter()                            { return m_router; }
+	ProcessorLink    getProcRouterLink()                    { return m_procRouter; }
+	ProcessorLink    getRouterProcLink()                    { return m_routerProc; }
+	public Stats.Recorder getStatsRecorder()                { return m_processor.getStatsRecorder(); }
 	public void      addTrace(LinkedList<TraceEvent> trace) { m_processor.addTrace(trace); }
+	public long      nextEventCycle(long now)               { return m_processor.nextInjectionCycle(now); }
 	public boolean   equals(Node node)                      { return getId() == node.getId(); }
 	/*public void      setRouting(RoutingFunction routing)    { m_router.setRoutingFunction(routing); }
 	public int       getOutputPort(int downstreamId)        { return m_router.getOutputPort(downstreamId); }
@@ -10,33 +10,41 @@ import sim.Config;
 
 public class OutputPort extends Port {
 
-	private Credit     m_inputCredit;
+	private int        m_inputCredit;
 	private OutputVC[] m_vcs;
 	
+	// Masks of the VCs that are idle with full credits, of those that are active 
+	// with a flit to send, and of those holding a flit
+	private long       m_free;
+	private long       m_sendable;
+	private long       m_hasFlits;
+	private long       m_available;
+	
 	public OutputPort(Console console, int nodeId, int portNum, Link link, int numVCs) {
 		super(console, nodeId, portNum, link);
 		m_vcs = new OutputVC[numVCs];
 		for(int i=0; i<m_vcs.length; i++)
-			m_vcs[i] = new OutputVC(portNum, i, console);
-		m_inputCredit = null;
+			m_vcs[i] = new OutputVC(this, i, console);
+		m_inputCredit = -1;
+		m_free = lowBits(numVCs);
+		m_sendable = 0;
+		m_hasFlits = 0;
+		m_available = lowBits(Math.min(Config.availableVCs(), numVCs));
 	}
 
 	/*
-	 * Read a credit input and return it
+	 * Read a credit input and return the VC it is for, or -1 if there is none
 	 */
-	public Credit readInputCredit() {
-		if(m_inputCredit != null) {
-			Credit c = m_inputCredit;
-			m_inputCredit = null;
-			return c;
-		}
-		return null;
+	public int readInputCredit() {
+		int vc = m_inputCredit;
+		m_inputCredit = -1;
+		return vc;
 	}
 	
 	/*
 	 * Add a flit to an output VC
 	 */
-	public void addFlit(int outputVC, Flit flit) {
+	public void addFlit(int outputVC, int flit) {
 		m_vcs[outputVC].addFlit(flit);
 		//console("O["+getPortNum()+":"+outputVC+"] added flit "+flit.toShortStr());
 	}
@@ -45,26 +53,14 @@ public class OutputPort extends Port {
 	 * Pick the next active VC round-robin and send the queued flit. Also, increment the hop count
 	 */
 	public void writeOutputFlit() {
-		
-		for(int j=1; j<m_vcs.length+1; j++) {
-			int index = (getCurrVC() + j) % m_vcs.length;
-			if(m_vcs[index].isActive() && m_vcs[index].hasFlit()) {
-				setCurrVC(index);
-				Flit flit = m_vcs[getCurrVC()].takeFlit();
-				flit.incHops();
-				//System.out.println("Output port wrote flit on VC "+getCurrVC());
-				getLink().setInputFlit(flit);
-				console("O["+getPortNum()+":"+getCurrVC()+"] wrote flit "+flit+" to link "+getLink().getId());
-				return;
-			}
-		}
-		
-		/*if(m_vcs[getCurrVC()].isActive() && m_vcs[getCurrVC()].hasFlit()) {
-			Flit flit = m_vcs[getCurrVC()].takeFlit();
-			flit.incHops();
-			getLink().setInputFlit(flit);
-			console("O["+getPortNum()+":"+getCurrVC()+"] wrote flit "+flit+" to link "+getLink().getId());
-		}*/
+		int index = nextVC(m_sendable);
+		if(index == -1)
+			return;
+		setCurrVC(index);
+		int flit = m_vcs[index].takeFlit();
+		m_vcs[index].getArena().incHops(flit);
+		getLink().setInputFlit(flit);
+		probe().wroteFlit(getPortNum(), index, flit, getLink().getId());
 	}
 	
 	/*
@@ -75,30 +71,37 @@ public class OutputPort extends Port {
 	 * for comparision of segment with lashtor
 	 */
 	public int allocVC() {
-		for(int i=0; i<(int)Math.min(Config.availableVCs(), m_vcs.length); i++) {
-			if(m_vcs[i].isIdle() && m_vcs[i].hasFullCredits()) {
-				//System.out.println("OP "+getPortNum()+" allocated VC "+i);
-				return i;
-			}
-		}
-		return -1;
+		long free = m_free & m_available;
+		return free == 0 ? -1 : Long.numberOfTrailingZeros(free);
 	}
 	
 	/*
 	 * Attempt to allocate a specific virtual channel
 	 */
 	public int allocVC(int vcIndex) {
-		if(m_vcs[vcIndex].isIdle() && m_vcs[vcIndex].hasFullCredits()) {
-			//System.out.println("OP "+getPortNum()+" allocated VC "+i);
-			return vcIndex;
-		}
-		return -1;
+		return (m_free & (1L << vcIndex)) != 0 ? vcIndex : -1;
+	}
+	
+	/*
+	 * Called by a VC when its state, credits or flit change
+	 */
+	void vcChanged(int vcIndex, boolean free, boolean sendable, boolean hasFlit) {
+		m_free = setBit(m_free, vcIndex, free);
+		m_sendable = setBit(m_sendable, vcIndex, sendable);
+		m_hasFlits = setBit(m_hasFlits, vcIndex, hasFlit);
+	}
+	
+	/*
+	 * Whether there is a credit to read or a flit waiting to be sent
+	 */
+	public boolean isBusy() {
+		return m_inputCredit != -1 || m_hasFlits != 0;
 	}
 	
 	public void reset() {
 		for(OutputVC vc : m_vcs)
 			vc.resetState();
-		m_inputCredit = null;
+		m_inputCredit = -1;
 		setCurrVC(0);
 	}
 	
@@ -121,11 +124,12 @@ public class OutputPort extends Port {
 		return s;
 	}
 	
-	public int     getDownStreamNodeId()         { return getLink().getToPort().getNodeId(); } // could neaten this
+	public int     numVCs()                      { return m_vcs.length; }
+	public int     getDownStreamNodeId()         { return getLink().getToId(); }
 	public int     getDownStreamNodePort()       { return getLink().getToPort().getPortNum(); } // could neaten this
 	public int     getConnectedInputPort(int vc) { return m_vcs[vc].getConnectedInputPort(); }
 	public int     getConnectedInputVC(int vc)   { return m_vcs[vc].getConnectedInputVC(); }
-	public void    setCreditInput(Credit credit) { m_inputCredit = credit; }
+	public void    setCreditInput(int vc)        { m_inputCredit = vc; }
 	public boolean hasCredits(int vcIndex)       { return !m_vcs[vcIndex].isWaitingCdt(); }
 	public boolean isEmpty(int vcIndex)          { return !m_vcs[vcIndex].hasFlit(); }
 }
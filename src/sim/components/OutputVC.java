@@ -8,34 +8,38 @@ package sim.components;
 
 public class OutputVC extends VirtualChannel {
 
-	private int  m_connectedInputPort;
-	private int  m_connectedInputVC;
-	private Flit m_flit;
+	private OutputPort m_port;
+	private int        m_connectedInputPort;
+	private int        m_connectedInputVC;
+	private int        m_flit;
 	
-	public OutputVC(int portNum, int index, Console console) {
-		super(portNum, index, console);
-		m_flit = null;
+	public OutputVC(OutputPort port, int index, Console console) {
+		super(port.getPortNum(), index, console);
+		m_port = port;
+		m_flit = FlitArena.NONE;
 	}
 	
-	public void addFlit(Flit flit) {
-		if(m_flit != null) {
-			System.err.println(flit+": output VC O["+getPortNum()+":"+getIndex()+"] not empty: contains "+m_flit);
-			console(flit+": output VC O["+getPortNum()+":"+getIndex()+"] not empty: contains "+m_flit);
+	public void addFlit(int flit) {
+		if(m_flit != FlitArena.NONE) {
+			String s = getArena().toString(flit)+": output VC O["+getPortNum()+":"+getIndex()+"] not empty: contains "+
+				getArena().toString(m_flit);
+			System.err.println(s);
+			probe().message(s);
 		}
-		m_flit = flit;
-		m_flit.setVC(getIndex());
+		m_flit = getArena().withVC(flit, getIndex());
+		changed();
 	}
 	
-	public Flit takeFlit() {
+	public int takeFlit() {
 		if(isActive()) {
-			Flit flit = m_flit;
-			if(flit instanceof TailFlit)
+			int flit = m_flit;
+			m_flit = FlitArena.NONE;
+			if(getArena().isTail(flit))
 				closeConnection();
 			decCredits();
-			m_flit = null;
 			return flit;
 		} else {
-			return null;
+			return FlitArena.NONE;
 		}
 	}
 	
@@ -50,21 +54,25 @@ public class OutputVC extends VirtualChannel {
 	
 	public void closeConnection() {
 		popState();
-		console("closing connection O["+getPortNum()+":"+getIndex()+"]");
+		probe().closedOutputConnection(getPortNum(), getIndex());
+	}
+	
+	protected void changed() {
+		m_port.vcChanged(getIndex(), isIdle() && hasFullCredits(), isActive() && m_flit != FlitArena.NONE, m_flit != FlitArena.NONE);
 	}
 	
 	public String toString(int downstreamNodeId, int downstreamNodePort) {
 		String to = (isIdle()?"-":""+downstreamNodeId+":I["+downstreamNodePort+":"+getIndex()+"]");
-		String flit = m_flit != null ? m_flit.toString() : "";
+		String flit = getArena().toString(m_flit);
 		return String.format("%-12s%-12s%-12s", to, getStateStr(), getCredits(), flit);
 	}
 
 	public void resetState() {
-		m_flit = null;
+		m_flit = FlitArena.NONE;
 		resetVCState();
 	}
 
 	public int     getConnectedInputPort() { return m_connectedInputPort; }
 	public int     getConnectedInputVC()   { return m_connectedInputVC; }
-	public boolean hasFlit()               { return m_flit != null; }
+	public boolean hasFlit()               { return m_flit != FlitArena.NONE; }
 }
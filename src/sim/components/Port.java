@@ -8,24 +8,50 @@ package sim.components;
 
 public class Port {
 	
-	private Console m_console;
+	private Probe   m_probe;
 	private int     m_nodeId;
 	private int     m_portNum;
 	private int     m_currVC;
 	private Link    m_link;
 	
 	public Port(Console console, int nodeId, int portNum, Link link) {
-		m_console = console;
+		m_probe = console.probe();
 		m_nodeId = nodeId;
 		m_portNum = portNum;
 		m_link = link;
 		m_currVC = 0;
 	}
 	
+	/*
+	 * The next VC after the current one, round-robin, that is set in a mask of 
+	 * VCs, or -1 if there is none
+	 */
+	protected int nextVC(long mask) {
+		return nextVC(mask, m_currVC);
+	}
+	
+	protected static int nextVC(long mask, int currVC) {
+		if(mask == 0)
+			return -1;
+		long after = mask & (-2L << currVC);
+		return Long.numberOfTrailingZeros(after != 0 ? after : mask);
+	}
+	
+	protected static long setBit(long mask, int index, boolean set) {
+		return set ? mask | (1L << index) : mask & ~(1L << index);
+	}
+	
+	/*
+	 * A mask of the first n VCs
+	 */
+	protected static long lowBits(int n) {
+		return n >= 64 ? -1L : (1L << n) - 1;
+	}
+	
 	public int  getNodeId()            { return m_nodeId; }
 	public int  getPortNum()           { return m_portNum;	}
 	public Link getLink()              { return m_link; }
 	public int  getCurrVC()            { return m_currVC; }
 	public void setCurrVC(int vcIndex) { m_currVC = vcIndex; }
-	public void console(String s)      { m_console.console(s); }
+	public Probe probe()               { return m_probe; }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+/*
+ * The events the components of a node report to its console. Events are given 
+ * as flit handles and port and VC numbers, and only formatted into messages by 
+ * a probe that shows them, so that outside debug mode, where the probe is NONE, 
+ * stepping the network does no string work at all
+ */
+public interface Probe {
+
+	public void message(String text);
+	public void receivedFlit(int flit);
+	public void openedConnection(int flit);
+	public void openedConnection(int flit, int inPort, int inVC, int outPort, int outVC);
+	public void allocVCFailed(int inPort, int inVC, int outPort);
+	public void wroteFlit(int port, int vc, int flit, int link);
+	public void closedInputConnection(int port, int vc, long state);
+	public void closedOutputConnection(int port, int vc);
+
+	/*
+	 * A probe that discards every event
+	 */
+	public static final Probe NONE = new Probe() {
+		public void message(String text) {}
+		public void receivedFlit(int flit) {}
+		public void openedConnection(int flit) {}
+		public void openedConnection(int flit, int inPort, int inVC, int outPort, int outVC) {}
+		public void allocVCFailed(int inPort, int inVC, int outPort) {}
+		public void wroteFlit(int port, int vc, int flit, int link) {}
+		public void closedInputConnection(int port, int vc, long state) {}
+		public void closedOutputConnection(int port, int vc) {}
+	};
+}
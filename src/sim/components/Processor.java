@@ -9,10 +9,13 @@ package sim.components;
 import java.util.Iterator;
 import java.util.LinkedList;
 
+import sim.Clock;
 import sim.Config;
 import sim.RunMode;
+import sim.SimConfig;
+import sim.SimulationContext;
 import sim.Simulator;
-import sim.Config.TrafficType;
+import sim.engine.ActiveSet;
 import sim.stats.Stats;
 import sim.traffic.Injection;
 import sim.traffic.TraceEvent;
@@ -22,19 +25,52 @@ public class Processor extends Console
 implements Component {
 	
 	public  static final int       PROC_VC = 0;
-	private static int             m_msgIdCount = 0;
 	private int                    m_nodeId;
+	private int                    m_numNodes;
+	private long                   m_msgCount;
 	private InputPort              m_inputPort;
 	private OutputPort             m_outputPort;
-	private LinkedList<Flit>       m_pendingFlits;
-	private LinkedList<Flit>       m_receivedFlits;
+	private SimConfig              m_config;
+	private SourceQueue            m_pendingPackets;
+	private ReassemblyTable        m_reassembly;
+	private boolean                m_packetGranularity;
+	private int                    m_receivedPacket;
+	private int                    m_receivedBodies;
+	private FlitArena              m_arena;
+	private FlitArena.Cache        m_flitCache;
+	private Stats.Recorder         m_stats;
+	private Clock                  m_clock;
+	private Simulator              m_simulator;
+	private RunMode                m_runMode;
+	private Injection              m_injection;
+	private Traffic                m_traffic;
 	private LinkedList<TraceEvent> m_pendingEvents;
+	private ActiveSet              m_activeSet;
 	
-	public Processor(int nodeId, ProcessorLink fromRouter, ProcessorLink toRouter) {
+	/*
+	 * The processor is stepped every cycle, so it takes the parts of its 
+	 * simulation that it uses once here rather than from the context each time
+	 */
+	public Processor(int nodeId, int numNodes, ProcessorLink fromRouter, ProcessorLink toRouter) {
 		super();
+		SimulationContext context = SimulationContext.current();
 		m_nodeId        = nodeId;
-		m_pendingFlits  = new LinkedList<Flit>();
-		m_receivedFlits = new LinkedList<Flit>();
+		m_numNodes      = numNodes;
+		m_msgCount      = 0;
+		m_config        = Config.snapshot();
+		m_pendingPackets = new SourceQueue(m_config.sourceQueue);
+		m_reassembly    = new ReassemblyTable();
+		m_packetGranularity = m_config.packetGranularity;
+		m_receivedPacket = FlitArena.NONE;
+		m_receivedBodies = 0;
+		m_arena         = FlitArena.current();
+		m_flitCache     = new FlitArena.Cache();
+		m_stats         = new Stats.Recorder();
+		m_clock         = Simulator.getClock();
+		m_simulator     = context.simulator();
+		m_runMode       = context.runMode();
+		m_injection     = context.injection();
+		m_traffic       = context.traffic();
 		
 		// Connect router
 		m_inputPort     = new InputPort(this, m_nodeId, 0, fromRouter, 1);
@@ -43,15 +79,15 @@ implements Component {
 		toRouter.connectFrom(m_outputPort);
 	}
 	
-	static long total = 0;
-	long start, end;
-	
 	/*
 	 * Generate uniform traffic and read received credits
 	 */
 	public void update() {
 		readIncomingCredits();
-		readIncomingFlits();
+		if(m_packetGranularity)
+			readIncomingPacketFlits();
+		else
+			readIncomingFlits();
 		generateTraffic();
 		routeOutgoingFlit();
 	}
@@ -68,97 +104,147 @@ implements Component {
 	 * Read any new credits from output port and update VC credits
 	 */
 	private void readIncomingCredits() {
-		Credit credit = m_outputPort.readInputCredit();
-		if(credit != null)
-			m_outputPort.incrementCredits(credit.getVC());
+		int vc = m_outputPort.readInputCredit();
+		if(vc != -1)
+			m_outputPort.incrementCredits(vc);
 	}
 	
 	/*
-	 * Read incoming flits from link, and add them to receieved flits list.
-	 * Call incCurrVCCredits() as processor consumes flits
-	 * 
-	 * NOTE: for now, don't store all received flits
-	 * NOTE: for non-minimal algoriths will require a ROB
+	 * Read incoming flits from link and record them in the reassembly table, 
+	 * which retires a packet once all of its flits have arrived, in whatever 
+	 * order. Call incCurrVCCredits() as processor consumes flits. Each flit is 
+	 * freed once it has been retired
 	 */
 	private void readIncomingFlits() {
 		m_inputPort.readInputFlit();
-		Flit flit = m_inputPort.peekNextFlit();
+		int flit = m_inputPort.peekNextFlit();
 		
-		if(flit != null) {
-			flit.setTimeReceived(Simulator.clock());
-			m_receivedFlits.add(m_inputPort.takeNextFlit());
-			console("Received flit "+flit);
+		if(flit != FlitArena.NONE) {
+			m_arena.setTimeReceived(flit, m_clock.now());
+			m_inputPort.takeNextFlit();
+			probe().receivedFlit(flit);
 			m_inputPort.incCurrVCCredits();
 			
-			// Only record stats once per packet, remove the packet from received
-			if(flit instanceof TailFlit) {
-				
-				boolean gotHead = false;
-				int bodyCount = 0;
-				int bodySize = -1;
-				for(Iterator<Flit> it  = m_receivedFlits.iterator(); it.hasNext(); ) {
-					Flit f = it.next();
-					if(flit.getMsgId() == f.getMsgId()) {
-						if(f instanceof HeaderFlit) {
-							gotHead = true;
-							bodySize = ((HeaderFlit)f).getLength();
-						}
-						if(f instanceof BodyFlit)
-							bodyCount++;
-						it.remove();
-					}
-				}
-
-				if(gotHead && bodyCount == bodySize) {
-					Stats.retirePacket(m_nodeId, flit);
+			// Only record stats once per packet
+			switch(m_reassembly.add(m_arena.getMsgId(flit), m_arena.getType(flit), m_arena.getLength(flit))) {
+			case ReassemblyTable.COMPLETE:
+				m_stats.retirePacket();
+				break;
+			case ReassemblyTable.CORRUPT:
+				System.err.println("Error: corrupt packet "+m_arena.getMsgId(flit));
+				break;
+			}
+		}
+		m_stats.retireFlit(flit);
+		if(flit != FlitArena.NONE)
+			m_arena.free(m_flitCache, flit);
+	}
+	
+	/*
+	 * With packet granularity only headers have records, so the body and tail 
+	 * flits are retired against the last header received: the flits of a packet 
+	 * arrive in order on the single VC of the processor. The header is freed with 
+	 * the tail
+	 */
+	private void readIncomingPacketFlits() {
+		m_inputPort.readInputFlit();
+		int flit = m_inputPort.peekNextFlit();
+		int packet = FlitArena.NONE;
+		boolean retired = false;
+		
+		if(flit != FlitArena.NONE) {
+			m_inputPort.takeNextFlit();
+			probe().receivedFlit(flit);
+			m_inputPort.incCurrVCCredits();
+			
+			if(m_arena.isHeader(flit)) {
+				m_receivedPacket = flit;
+				m_receivedBodies = 0;
+			} else if(m_arena.isBody(flit)) {
+				m_receivedBodies++;
+			}
+			packet = m_receivedPacket;
+			m_arena.setTimeReceived(packet, m_clock.now());
+			
+			if(m_arena.isTail(flit)) {
+				retired = true;
+				m_receivedPacket = FlitArena.NONE;
+				if(m_receivedBodies == m_arena.getLength(packet)) {
+					m_stats.retirePacket();
 				} else {
 					System.err.println("Error: incomplete packet");
 				}
 			}
 		}
-		Stats.retireFlit(m_nodeId, flit);
+		m_stats.retireFlit(packet);
+		if(retired)
+			m_arena.free(m_flitCache, packet);
 	}
 	
 	/*
-	 * Take first pending flit and put on output port if that port is ready 
-	 * to accept flits. I.e. it is not waiting for credits.
+	 * Take next flit of the first pending packet and put on output port if that 
+	 * port is ready to accept flits. I.e. it is not waiting for credits.
 	 */
 	private void routeOutgoingFlit() {	
-		if(!m_pendingFlits.isEmpty() && m_outputPort.hasCredits(PROC_VC)) {
-			Flit flit = m_pendingFlits.getFirst();
+		if(!m_pendingPackets.isEmpty() && m_outputPort.hasCredits(PROC_VC)) {
 			int outputVC = 0;
 			
-			if(flit instanceof HeaderFlit) {
+			if(m_pendingPackets.flitsSent() == 0) {
 				outputVC = m_outputPort.allocVC();
 				
 				if(outputVC == -1) {
 					//console("could not allocate the VC for the processor");
 					return;
-				} else {
-					m_outputPort.setupConnection(PROC_VC, 0, 0);
-					console(flit+" opening connection through O[0:0]");
 				}
 			}
 			
+			int flit = nextPendingFlit();
+			if(m_arena.isHeader(flit)) {
+				m_outputPort.setupConnection(PROC_VC, 0, 0);
+				probe().openedConnection(flit);
+			}
+			
 			m_outputPort.setCurrVC(outputVC);
-			m_outputPort.addFlit(PROC_VC, m_pendingFlits.removeFirst());
+			m_outputPort.addFlit(PROC_VC, flit);
 		}
 	}
+	
+	/*
+	 * Make the next flit of the first pending packet, its flits are only made as 
+	 * they are injected but carry the cycle the packet was generated
+	 */
+	private int nextPendingFlit() {
+		SourceQueue q = m_pendingPackets;
+		int seq = q.flitsSent();
+		int length = q.getLength(0);
+		int flit;
+		
+		if(seq == 0)
+			flit = m_arena.newHeader(m_flitCache, q.getMsgId(0), q.getSample(0), q.getTime(0), m_nodeId, q.getDest(0), length);
+		else if(m_packetGranularity)
+			flit = seq <= length ? FlitArena.bodyMark(PROC_VC) : FlitArena.tailMark(PROC_VC);
+		else if(seq <= length)
+			flit = m_arena.newBody(m_flitCache, q.getMsgId(0), q.getSample(0), q.getTime(0), seq - 1);
+		else
+			flit = m_arena.newTail(m_flitCache, q.getMsgId(0), q.getSample(0), q.getTime(0));
+		
+		q.flitSent();
+		return flit;
+	}
 
 	/*
 	 * Generate uniform traffic to a random node, don't if in debug mode and 
 	 * outside of limit or when draining on a proper run.
 	 */
 	private void generateTraffic() {
-		if((Config.debugMode() && m_msgIdCount == Config.maxMsgs() && Config.maxMsgs() > 0) ||
-				(Config.runMode() && Simulator.draining()))
+		if(!isGenerating())
 			return;
 		
-		if(Config.traffic().equals(TrafficType.TRACE)) {
+		if(m_config.trace) {
 			// Take all of the pending trace events for this clock cycle
 			for(Iterator<TraceEvent> it = m_pendingEvents.iterator(); it.hasNext();) {
 				TraceEvent e = (TraceEvent) it.next();
-				if(e.clock == Simulator.clock()) {
+				if(e.clock == m_clock.now()) {
 					generatePacket(e.dest, e.burst);
 					it.remove();
 				} else {
@@ -166,24 +252,67 @@ implements Component {
 				}
 			}
 		} else {
-			// Use a traffic pattern generation function
-			int node = Traffic.getDest(m_nodeId, Simulator.numNodes());
-			int pktLen = Injection.getPacketLen(m_nodeId);
+			// The destination is only drawn for a packet that is started
+			int pktLen = m_injection.getPacketLen(m_nodeId, m_clock.now());
 			if(pktLen > 0) {
-				generatePacket(node, pktLen);
+				generatePacket(m_traffic.getDest(m_nodeId), pktLen);
 			}
 		}
 	}
 	
+	/*
+	 * The packets generated are counted up to the start of the cycle, so in debug 
+	 * mode the processors stop generating from the cycle after max_msgs is reached
+	 */
+	private boolean isGenerating() {
+		return !((m_config.debug && m_config.maxMsgs > 0 && Stats.packetsGenerated() >= m_config.maxMsgs) ||
+				(m_config.run && m_simulator.isDraining()));
+	}
+	
+	/*
+	 * The earliest cycle from the global cycle that this processor could generate 
+	 * another packet
+	 */
+	public long nextInjectionCycle(long now) {
+		if(!isGenerating())
+			return Long.MAX_VALUE;
+		
+		if(m_config.trace) {
+			// Events are taken in order and only on their exact clock
+			if(m_pendingEvents == null || m_pendingEvents.isEmpty() || 
+					m_pendingEvents.getFirst().clock < now)
+				return Long.MAX_VALUE;
+			return m_pendingEvents.getFirst().clock;
+		}
+		
+		return m_injection.nextInjectionCycle(m_nodeId, now);
+	}
+	
+	/*
+	 * Whether there are no flits pending, buffered or to be sent
+	 */
+	public boolean isIdle() {
+		return m_pendingPackets.isEmpty() && !m_inputPort.isBusy() && !m_outputPort.isBusy();
+	}
+	
+	/*
+	 * Message ids are interleaved between the nodes so that they are unique 
+	 * without a shared counter. They are longs, as an int would wrap on a large 
+	 * network or a long run, and the table of packets being received relies on 
+	 * an id never being negative. A packet is dropped if the source queue is full
+	 */
 	private void generatePacket(int dest, int length) {
-		int messageId = m_msgIdCount++;
-		int sample = Simulator.running() ? RunMode.sampleNum() : -1;
-		m_pendingFlits.addLast(new HeaderFlit(messageId, sample, m_nodeId, dest, length));
-		for(int i=0; i<length; i++)
-			m_pendingFlits.addLast(new BodyFlit(messageId, sample, i));
-		m_pendingFlits.addLast(new TailFlit(messageId, sample));
+		if(m_pendingPackets.isFull()) {
+			m_stats.dropPacket();
+			return;
+		}
+		long messageId = m_msgCount++ * m_numNodes + m_nodeId;
+		int sample = m_simulator.isRunning() ? m_runMode.getSampleNum() : -1;
+		m_pendingPackets.addLast(messageId, sample, dest, length, m_clock.now());
+		if(m_activeSet != null)
+			m_activeSet.wake(m_nodeId);
 		//System.out.println("Node "+m_nodeId+" generated packet "+length+" flits to node "+dest+" at "+Simulator.clock());
-		Stats.newPacket();
+		m_stats.newPacket();
 	}
 
 	public String toString() {
@@ -198,29 +327,33 @@ implements Component {
 		//s += "Link\tFlits\tCdts\n";
 		//s += m_outputPort.getLink()+"\n";
 		
-		s += "\n\n[PENDING FLITS : "+m_pendingFlits.size()+"]\n\n";
-		for(Flit f : m_pendingFlits)
-			s += f+"\n";
+		s += "\n\n[PENDING PACKETS : "+m_pendingPackets.size()+"]\n\n";
+		s += String.format("%-16s%-16s%-16s\n", "Packet", "Dest", "Flits");
+		for(int i=0; i<m_pendingPackets.size(); i++) {
+			int sent = i == 0 ? m_pendingPackets.flitsSent() : 0;
+			s += String.format("%-16d%-16d%-16s\n", m_pendingPackets.getMsgId(i), m_pendingPackets.getDest(i), 
+				sent+"/"+(m_pendingPackets.getLength(i)+2));
+		}
 		
-		s += "\n\n[RECEIVED FLITS : "+m_receivedFlits.size()+"]\n\n";
-		s += String.format("%-16s%-16s%-16%s\n", "Flit", "Rcvd@", "Hops");
-		for(Flit f : m_receivedFlits)
-			s += String.format("%-16s%-16d%-16d\n", f.toString(), f.getTimeReceived(), f.getNumHops());
+		s += "\n\n[PACKETS BEING RECEIVED : "+m_reassembly.size()+"]\n";
 		
 		return s;
 	}
 
 	public void reset() {
-		m_pendingFlits.clear();
-		m_receivedFlits.clear();
+		m_pendingPackets.clear();
+		m_reassembly.clear();
+		m_receivedPacket = FlitArena.NONE;
+		m_flitCache.clear();
 		m_inputPort.reset();
 		m_outputPort.reset();
 	}
 
 	public int     getNodeId()         { return m_nodeId; }
 	public String  getTitle()          { return "Processor "+m_nodeId; }
-	public boolean hasFlits()          { return !m_pendingFlits.isEmpty(); }
-	public Flit    peekFlit()          { return m_pendingFlits.peek(); }
-	public Flit    takeFlit()          { return m_pendingFlits.poll(); }
+	public boolean hasFlits()          { return !m_pendingPackets.isEmpty(); }
+	public Stats.Recorder getStatsRecorder()              { return m_stats; }
 	public void    addTrace(LinkedList<TraceEvent> trace) { m_pendingEvents = trace; }
+	public void    setActiveSet(ActiveSet activeSet)      { m_activeSet = activeSet; }
+	public void    setClock(Clock clock)                  { m_clock = clock; }
 }
@@ -6,12 +6,12 @@
  */ 
 package sim.components;
 
+import sim.SimulationContext;
+
 public class ProcessorLink extends Link {
 
-	private static int m_idCount = 0;
-	
 	public ProcessorLink(int delay) {
-		super(m_idCount++, delay);
+		super(SimulationContext.current().nextProcessorLinkId(), delay);
 	}
 
 }
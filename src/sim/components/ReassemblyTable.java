@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.util.Arrays;
+
+/*
+ * The packets a processor is receiving, keyed by message id in an open addressed
+ * hash table. A packet is held only as whether its header and tail have arrived,
+ * the length given by its header and a count of its body flits, so its flits can
+ * be freed as they arrive and in any order. A packet is removed once complete
+ */
+public class ReassemblyTable {
+
+	public static final int PENDING  = 0;
+	public static final int COMPLETE = 1;
+	public static final int CORRUPT  = 2;
+
+	private static final long EMPTY = -1;
+
+	private long[]    m_msgIds;
+	private int[]     m_lengths;
+	private int[]     m_bodies;
+	private boolean[] m_tails;
+	private int       m_size;
+
+	public ReassemblyTable() {
+		allocate(16);
+	}
+
+	private void allocate(int capacity) {
+		m_msgIds  = new long[capacity];
+		m_lengths = new int[capacity];
+		m_bodies  = new int[capacity];
+		m_tails   = new boolean[capacity];
+		Arrays.fill(m_msgIds, EMPTY);
+		m_size = 0;
+	}
+
+	/*
+	 * Record the arrival of a flit of a type, and the length of the packet if it
+	 * is the header. CORRUPT is returned for a flit its packet already has
+	 */
+	public int add(long msgId, int type, int length) {
+		int slot = find(msgId);
+		if(m_msgIds[slot] == EMPTY) {
+			if(m_size * 2 >= m_msgIds.length) {
+				grow();
+				slot = find(msgId);
+			}
+			m_msgIds[slot]  = msgId;
+			m_lengths[slot] = -1;
+			m_bodies[slot]  = 0;
+			m_tails[slot]   = false;
+			m_size++;
+		}
+
+		switch(type) {
+		case FlitArena.HEADER:
+			if(m_lengths[slot] != -1)
+				return CORRUPT;
+			m_lengths[slot] = length;
+			break;
+		case FlitArena.BODY:
+			m_bodies[slot]++;
+			break;
+		default:
+			if(m_tails[slot])
+				return CORRUPT;
+			m_tails[slot] = true;
+		}
+
+		if(m_lengths[slot] != -1 && m_bodies[slot] > m_lengths[slot])
+			return CORRUPT;
+		if(m_tails[slot] && m_bodies[slot] == m_lengths[slot]) {
+			remove(slot);
+			return COMPLETE;
+		}
+		return PENDING;
+	}
+
+	/*
+	 * The slot holding a message id, or the empty slot it would go in
+	 */
+	private int find(long msgId) {
+		int mask = m_msgIds.length - 1;
+		int slot = hash(msgId) & mask;
+		while(m_msgIds[slot] != EMPTY && m_msgIds[slot] != msgId)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/*
+	 * Empty a slot and move back any entries after it that it displaced, so that
+	 * every entry stays reachable from its hash without tombstones
+	 */
+	private void remove(int slot) {
+		int mask = m_msgIds.length - 1;
+		int next = slot;
+		while(true) {
+			next = (next + 1) & mask;
+			if(m_msgIds[next] == EMPTY)
+				break;
+			int home = hash(m_msgIds[next]) & mask;
+			if(((next - home) & mask) >= ((next - slot) & mask)) {
+				m_msgIds[slot]  = m_msgIds[next];
+				m_lengths[slot] = m_lengths[next];
+				m_bodies[slot]  = m_bodies[next];
+				m_tails[slot]   = m_tails[next];
+				slot = next;
+			}
+		}
+		m_msgIds[slot] = EMPTY;
+		m_size--;
+	}
+
+	private void grow() {
+		long[] msgIds = m_msgIds;
+		int[] lengths = m_lengths, bodies = m_bodies;
+		boolean[] tails = m_tails;
+		allocate(msgIds.length * 2);
+		for(int i=0; i<msgIds.length; i++) {
+			if(msgIds[i] != EMPTY) {
+				int slot = find(msgIds[i]);
+				m_msgIds[slot]  = msgIds[i];
+				m_lengths[slot] = lengths[i];
+				m_bodies[slot]  = bodies[i];
+				m_tails[slot]   = tails[i];
+				m_size++;
+			}
+		}
+	}
+
+	private static int hash(long msgId) {
+		long h = msgId * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	public void clear() {
+		Arrays.fill(m_msgIds, EMPTY);
+		m_size = 0;
+	}
+
+	public int size() { return m_size; }
+}
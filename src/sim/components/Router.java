@@ -7,7 +7,7 @@
 package sim.components;
 
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import sim.Config;
@@ -22,6 +22,7 @@ implements Component {
 	private OutputPort[]     m_outputPorts;
 	private int              m_procInputPort;
 	private int              m_procOutputPort;
+	private FlitArena        m_arena;
 	
 	public Router(int nodeId, ProcessorLink fromProc, ProcessorLink toProc, 
 			int numInputs, int numOutputs) {
@@ -31,6 +32,7 @@ implements Component {
 		m_outputPorts     = new OutputPort[numOutputs + 1];
 		m_procInputPort   = numInputs;
 		m_procOutputPort  = numOutputs;
+		m_arena           = FlitArena.current();
 		
 		// Connect processor
 		m_inputPorts[m_procInputPort] = new InputPort(this, m_nodeId, m_procInputPort, fromProc, 1);
@@ -39,12 +41,9 @@ implements Component {
 		toProc.connectFrom(m_outputPorts[m_procOutputPort]);
 	}
 	
-	public void connectTo(Router toRouter, int fromPort, int toPort) {
-		//System.out.println("Connecting "+getId()+":"+fromPort+" to "+toRouter.getId()+":"+toPort);
-		RouterLink link = new RouterLink(Config.linkDelay());
-		m_outputPorts[fromPort] = new OutputPort(this, m_nodeId, fromPort, link, Config.numVCs());
-		toRouter.connectFrom(toPort, link);
-		link.connectFrom(this, m_outputPorts[fromPort]);
+	public void connectTo(int port, RouterLink link) {
+		m_outputPorts[port] = new OutputPort(this, m_nodeId, port, link, Config.numVCs());
+		link.connectFrom(this, m_outputPorts[port]);
 	}
 	
 	public void connectFrom(int port, RouterLink link) {
@@ -86,11 +85,11 @@ implements Component {
 	 */
 	public void readCredits() {
 		for(OutputPort p : m_outputPorts) {
-			Credit credit = p.readInputCredit();
-			if(credit != null) {
-				m_outputPorts[p.getPortNum()].incrementCredits(credit.getVC());
-				int conInputPort = m_outputPorts[p.getPortNum()].getConnectedInputPort(credit.getVC());
-				int conInputVC = m_outputPorts[p.getPortNum()].getConnectedInputVC(credit.getVC());
+			int vc = p.readInputCredit();
+			if(vc != -1) {
+				m_outputPorts[p.getPortNum()].incrementCredits(vc);
+				int conInputPort = m_outputPorts[p.getPortNum()].getConnectedInputPort(vc);
+				int conInputVC = m_outputPorts[p.getPortNum()].getConnectedInputVC(vc);
 				m_inputPorts[conInputPort].incrementCredits(conInputVC);
 				//console("Recieved credit from output port "+p.getPortNum()+" connected to ["+conInputPort+":"+conInputVC+"]");
 			}
@@ -110,17 +109,17 @@ implements Component {
 	 * and route it through the switch
 	 */
 	private void routeInput(InputPort inputPort) {
-		Flit flit = inputPort.peekNextFlit();
-		if(flit != null) {
-			int inputVC = flit.getVC();
+		int flit = inputPort.peekNextFlit();
+		if(flit != FlitArena.NONE) {
+			int inputVC = m_arena.getVC(flit);
 			int outputPort = -1;
 			int outputVC = -1;
 			
 			// Work out the output port and vc number
-			if(flit instanceof HeaderFlit) {
+			if(m_arena.isHeader(flit)) {
 
-				int flitSrc = ((HeaderFlit)flit).getSrc();
-				int flitDest = ((HeaderFlit)flit).getDest();
+				int flitSrc = m_arena.getSrc(flit);
+				int flitDest = m_arena.getDest(flit);
 				int procId = m_outputPorts[m_procOutputPort].getDownStreamNodeId();
 				
 				// Select an output port and output virtual channel
@@ -138,17 +137,17 @@ implements Component {
 				// If could not allocate VC then replace flit and wait, otherwise open a connection
 				if(outputVC == -1) {
 					inputPort.setWaitingVC(inputVC);
-					console("could not allocate a VC for I["+inputPort.getPortNum()+":"+inputVC+"] on O["+outputPort+":?]");
+					probe().allocVCFailed(inputPort.getPortNum(), inputVC, outputPort);
 					return;
 				} else {
 					inputPort.setupConnection(inputVC, outputPort, outputVC);
 					m_outputPorts[outputPort].setupConnection(outputVC, inputPort.getPortNum(), inputVC);
-					console(flit+" opening connection I["+inputPort.getPortNum()+":"+inputVC+"] to O["+outputPort+":"+outputVC+"] on dsn VC "+outputVC);
+					probe().openedConnection(flit, inputPort.getPortNum(), inputVC, outputPort, outputVC);
 				}
 				
-			} else if(flit instanceof BodyFlit || flit instanceof TailFlit) {
-				outputPort = inputPort.getOutputPort(flit.getVC());
-				outputVC = inputPort.getOutputVC(flit.getVC());
+			} else {
+				outputPort = inputPort.getOutputPort(inputVC);
+				outputVC = inputPort.getOutputVC(inputVC);
 			}
 
 			// Only poll the input flit if the output is empty
@@ -209,6 +208,16 @@ implements Component {
 		return s;
 	}
 
+	public boolean isBusy() {
+		for(InputPort p : m_inputPorts)
+			if(p.isBusy())
+				return true;
+		for(OutputPort p : m_outputPorts)
+			if(p.isBusy())
+				return true;
+		return false;
+	}
+	
 	public void reset() {
 		for(InputPort p : m_inputPorts)
 			p.reset();
@@ -216,8 +225,12 @@ implements Component {
 			p.reset();
 	}
 	
+	/*
+	 * Links are returned in port order, so that anything built by walking the 
+	 * network is the same in every run
+	 */
 	public Set<RouterLink> linkSet() {
-		HashSet<RouterLink> links = new HashSet<RouterLink>();
+		LinkedHashSet<RouterLink> links = new LinkedHashSet<RouterLink>();
 		for(int i=0; i<m_inputPorts.length - 1; i++)
 			links.add((RouterLink)m_inputPorts[i].getLink());
 		for(int i=0; i<m_outputPorts.length - 1; i++)
@@ -229,14 +242,14 @@ implements Component {
 		RouterLink[] links = new RouterLink[m_inputPorts.length-1];
 		for(int i=0; i<links.length; i++)
 			links[i] = (RouterLink) m_inputPorts[i].getLink();
-		return new HashSet<RouterLink>(Arrays.asList(links));
+		return new LinkedHashSet<RouterLink>(Arrays.asList(links));
 	}
 
 	public Set<RouterLink> outgoingLinks() {
 		RouterLink[] links = new RouterLink[m_outputPorts.length-1];
 		for(int i=0; i<m_outputPorts.length-1; i++)
 			links[i] = (RouterLink) m_outputPorts[i].getLink();
-		return new HashSet<RouterLink>(Arrays.asList(links));
+		return new LinkedHashSet<RouterLink>(Arrays.asList(links));
 	}
 	
 	public int getOutputPort(int downstreamNodeId) {
@@ -249,7 +262,7 @@ implements Component {
 	
 	public RouterLink getLink(Router to) {
 		for(RouterLink l : outgoingLinks()) {
-			if(l.getTo().equals(to))
+			if(l.getToId() == to.getNodeId())
 				return l;
 		}
 		System.err.println("Error: could not get router link to "+to.getNodeId());
@@ -263,4 +276,6 @@ implements Component {
 	public int       outDegree()          { return m_outputPorts.length - 1; }
 	public boolean   equals(Router r)     { return m_nodeId == r.getNodeId(); }
 	public RoutingFunction getRoutingFn() { return m_routingFunction; }
+	InputPort[]      getInputPorts()      { return m_inputPorts; }
+	OutputPort[]     getOutputPorts()     { return m_outputPorts; }
 }
@@ -6,15 +6,22 @@
  */ 
 package sim.components;
 
+/*
+ * A link between two routers, numbered as in the topology graph. The ids of the 
+ * nodes at each end are held by the link, as a process of a distributed engine 
+ * doesn't have the router at the end of a link to a node of another process
+ */
 public class RouterLink extends Link {
 
-	private static int m_idCount = 0;
-	
 	private Router     m_from;
 	private Router     m_to;
+	private int        m_fromId;
+	private int        m_toId;
 
-	public RouterLink(int delay) {
-		super(m_idCount++, delay);
+	public RouterLink(int id, int delay, int fromId, int toId) {
+		super(id, delay);
+		m_fromId = fromId;
+		m_toId   = toId;
 	}
 
 	public void connectFrom(Router from, OutputPort fromPort) {
@@ -29,7 +36,7 @@ public class RouterLink extends Link {
 	
 	public Router  getTo()                           { return m_to; }
 	public Router  getFrom()                         { return m_from; }
-	public int     getToId()                         { return m_to.getNodeId(); }
-	public int     getFromId()                       { return m_from.getNodeId(); }
-	public boolean connects(Router src, Router dest) { return m_from.equals(src) && m_to.equals(dest); }
+	public int     getToId()                         { return m_toId; }
+	public int     getFromId()                       { return m_fromId; }
+	public boolean connects(Router src, Router dest) { return m_fromId == src.getNodeId() && m_toId == dest.getNodeId(); }
 }
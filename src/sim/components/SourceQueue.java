@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+/*
+ * The packets a processor has generated but not yet injected, held as compact
+ * descriptors in a circular array rather than as flits. The flits of the packet
+ * at the head are only made as they are injected, so a source above saturation
+ * holds a few ints per waiting packet. A bound of 0 leaves the queue unbounded
+ */
+public class SourceQueue {
+
+	private int    m_bound;
+	private long[] m_msgIds;
+	private int[]  m_samples;
+	private int[]  m_dests;
+	private int[]  m_lengths;
+	private long[] m_times;
+	private int    m_head;
+	private int    m_size;
+	private int    m_sent;
+
+	public SourceQueue(int bound) {
+		m_bound = bound;
+		allocate(16);
+		clear();
+	}
+
+	private void allocate(int capacity) {
+		m_msgIds  = new long[capacity];
+		m_samples = new int[capacity];
+		m_dests   = new int[capacity];
+		m_lengths = new int[capacity];
+		m_times   = new long[capacity];
+	}
+
+	public void addLast(long msgId, int sample, int dest, int length, long time) {
+		if(m_size == m_msgIds.length)
+			grow();
+		int slot = slot(m_size++);
+		m_msgIds[slot]  = msgId;
+		m_samples[slot] = sample;
+		m_dests[slot]   = dest;
+		m_lengths[slot] = length;
+		m_times[slot]   = time;
+	}
+
+	private void grow() {
+		int[] samples = m_samples, dests = m_dests, lengths = m_lengths;
+		long[] msgIds = m_msgIds, times = m_times;
+		int head = m_head, mask = msgIds.length - 1;
+		allocate(msgIds.length * 2);
+		for(int i=0; i<m_size; i++) {
+			int slot = (head + i) & mask;
+			m_msgIds[i]  = msgIds[slot];
+			m_samples[i] = samples[slot];
+			m_dests[i]   = dests[slot];
+			m_lengths[i] = lengths[slot];
+			m_times[i]   = times[slot];
+		}
+		m_head = 0;
+	}
+
+	/*
+	 * Count a flit of the head packet as injected, which removes the packet once
+	 * its header, body and tail flits have all been
+	 */
+	public void flitSent() {
+		if(++m_sent == m_lengths[m_head] + 2) {
+			m_head = slot(1);
+			m_size--;
+			m_sent = 0;
+		}
+	}
+
+	public void clear() {
+		m_head = 0;
+		m_size = 0;
+		m_sent = 0;
+	}
+
+	private int slot(int i) { return (m_head + i) & (m_msgIds.length - 1); }
+
+	public boolean isFull()            { return m_bound > 0 && m_size >= m_bound; }
+	public boolean isEmpty()           { return m_size == 0; }
+	public int     size()              { return m_size; }
+	public int     flitsSent()         { return m_sent; }
+	public long    getMsgId(int i)     { return m_msgIds[slot(i)]; }
+	public int     getSample(int i)    { return m_samples[slot(i)]; }
+	public int     getDest(int i)      { return m_dests[slot(i)]; }
+	public int     getLength(int i)    { return m_lengths[slot(i)]; }
+	public long    getTime(int i)      { return m_times[slot(i)]; }
+}
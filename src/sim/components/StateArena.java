@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InaccessibleObjectException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Allocates the primitive state of a compiled network. On the heap, which is the
+ * default, the state is held in plain arrays and read straight from them. Off the
+ * heap it is held in direct buffers, which the garbage collector never scans or
+ * moves, so the size of a network is bounded by memory rather than by the heap.
+ * 
+ * The state is handed out as Ints and Longs, which are final and test for their
+ * array first, so on the heap a read is an array access once it is inlined and
+ * the buffers are never touched.
+ * 
+ * A direct buffer holds at most 2 GB, so off the heap each array is split into
+ * chunks of 512 MB, and element i is in chunk i >>> shift at i & mask. The
+ * arrays are still indexed by an int, so an array of more elements than that is
+ * stopped with an error before anything is allocated.
+ * 
+ * An arena is created with the network in Simulator.init and lives as long as it
+ * does; between runs the state is refilled in place by reset rather than being
+ * allocated again. Direct memory is only given back when its buffers are
+ * collected, which may be long after the network has been replaced, so when the
+ * network is shut down the arena releases its buffers itself.
+ */
+public class StateArena {
+
+	private static final int CHUNK_SHIFT = 29;
+	private static final int INT_SHIFT   = CHUNK_SHIFT - 2;
+	private static final int INT_MASK    = (1 << INT_SHIFT) - 1;
+	private static final int LONG_SHIFT  = CHUNK_SHIFT - 3;
+	private static final int LONG_MASK   = (1 << LONG_SHIFT) - 1;
+
+	public static final class Ints {
+		private final int[]     m_array;
+		private IntBuffer[]     m_chunks;
+		private ByteBuffer[]    m_direct;
+		private final int       m_size;
+
+		private Ints(int[] array, ByteBuffer[] direct, int size) {
+			m_array = array;
+			m_size = size;
+			m_direct = direct;
+			if(direct != null) {
+				m_chunks = new IntBuffer[direct.length];
+				for(int i=0; i<direct.length; i++)
+					m_chunks[i] = direct[i].asIntBuffer();
+			}
+		}
+
+		public int get(int i) {
+			return m_array != null ? m_array[i] : m_chunks[i >>> INT_SHIFT].get(i & INT_MASK);
+		}
+
+		public void put(int i, int value) {
+			if(m_array != null)
+				m_array[i] = value;
+			else
+				m_chunks[i >>> INT_SHIFT].put(i & INT_MASK, value);
+		}
+
+		public void fill(int value) {
+			for(int i=0; i<m_size; i++)
+				put(i, value);
+		}
+
+		public int capacity() { return m_size; }
+
+		private void release() {
+			free(m_direct);
+			m_direct = null;
+			m_chunks = null;
+		}
+	}
+
+	public static final class Longs {
+		private final long[]    m_array;
+		private LongBuffer[]    m_chunks;
+		private ByteBuffer[]    m_direct;
+		private final int       m_size;
+
+		private Longs(long[] array, ByteBuffer[] direct, int size) {
+			m_array = array;
+			m_size = size;
+			m_direct = direct;
+			if(direct != null) {
+				m_chunks = new LongBuffer[direct.length];
+				for(int i=0; i<direct.length; i++)
+					m_chunks[i] = direct[i].asLongBuffer();
+			}
+		}
+
+		public long get(int i) {
+			return m_array != null ? m_array[i] : m_chunks[i >>> LONG_SHIFT].get(i & LONG_MASK);
+		}
+
+		public void put(int i, long value) {
+			if(m_array != null)
+				m_array[i] = value;
+			else
+				m_chunks[i >>> LONG_SHIFT].put(i & LONG_MASK, value);
+		}
+
+		public void fill(long value) {
+			for(int i=0; i<m_size; i++)
+				put(i, value);
+		}
+
+		public int capacity() { return m_size; }
+
+		private void release() {
+			free(m_direct);
+			m_direct = null;
+			m_chunks = null;
+		}
+	}
+
+	private boolean     m_offHeap;
+	private long        m_bytes;
+	private List<Ints>  m_directInts;
+	private List<Longs> m_directLongs;
+
+	public StateArena(boolean offHeap) {
+		m_offHeap = offHeap;
+		m_bytes = 0;
+		m_directInts = new LinkedList<Ints>();
+		m_directLongs = new LinkedList<Longs>();
+	}
+
+	public Ints ints(long size) {
+		check(size);
+		m_bytes += size * 4;
+		if(!m_offHeap)
+			return new Ints(new int[(int) size], null, (int) size);
+		Ints ints = new Ints(null, allocateChunks(size, INT_SHIFT, 4), (int) size);
+		m_directInts.add(ints);
+		return ints;
+	}
+
+	public Longs longs(long size) {
+		check(size);
+		m_bytes += size * 8;
+		if(!m_offHeap)
+			return new Longs(new long[(int) size], null, (int) size);
+		Longs longs = new Longs(null, allocateChunks(size, LONG_SHIFT, 8), (int) size);
+		m_directLongs.add(longs);
+		return longs;
+	}
+
+	/*
+	 * Free the direct memory of the arena now. Its arrays are emptied, so one that
+	 * is read afterwards fails with an exception rather than reading freed memory
+	 */
+	public void release() {
+		for(Ints ints : m_directInts)
+			ints.release();
+		for(Longs longs : m_directLongs)
+			longs.release();
+		m_directInts.clear();
+		m_directLongs.clear();
+	}
+
+	private void check(long size) {
+		if(size > Integer.MAX_VALUE) {
+			System.err.println("Error: network state of "+size+" elements is too large for one array "+
+					"(at most "+Integer.MAX_VALUE+"); use fewer VCs or smaller buffers");
+			System.exit(1);
+		}
+	}
+
+	private ByteBuffer[] allocateChunks(long size, int shift, int elementBytes) {
+		int numChunks = (int) ((size + (1L << shift) - 1) >>> shift);
+		ByteBuffer[] chunks = new ByteBuffer[numChunks];
+		for(int i=0; i<numChunks; i++) {
+			long elements = Math.min(size - ((long) i << shift), 1L << shift);
+			chunks[i] = allocateDirect((int) elements * elementBytes);
+		}
+		return chunks;
+	}
+
+	private ByteBuffer allocateDirect(int bytes) {
+		try {
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		} catch(OutOfMemoryError e) {
+			System.err.println("Error: could not allocate "+bytes+" bytes of network state off the heap "+
+					"(see -XX:MaxDirectMemorySize)");
+			System.exit(1);
+			return null;
+		}
+	}
+
+	/*
+	 * Run the cleaners of direct buffers, through sun.misc.Unsafe as there is no
+	 * public way to. Where that isn't available they are left to the collector,
+	 * with a warning as the memory may not be given back for some time
+	 */
+	private static void free(ByteBuffer[] buffers) {
+		if(buffers == null)
+			return;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			for(ByteBuffer buffer : buffers)
+				invokeCleaner.invoke(unsafe, buffer);
+		} catch(ReflectiveOperationException | InaccessibleObjectException e) {
+			System.err.println("Warning: could not free network state off the heap, leaving it to the collector ("+e+")");
+		}
+	}
+
+	public boolean isOffHeap() { return m_offHeap; }
+	public long    bytes()     { return m_bytes; }
+}
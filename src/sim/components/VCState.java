@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+/*
+ * The stack of states of a virtual channel, packed two bits a state into a long 
+ * with the top of the stack in the low bits. IDLE is zero, so the bottom of every 
+ * stack is IDLE and popping it leaves IDLE. Checking a state is a mask and a 
+ * compare, and a stack is copied by value, so the same transitions serve the VC 
+ * objects and the compiled network. A long holds 32 states above the IDLE, far 
+ * more than a VC ever stacks. VCStateCheck, under test/, checks the transitions 
+ * against the list based stack they replaced.
+ */
+final class VCState {
+
+	static final int  IDLE    = 0;
+	static final int  ACTIVE  = 1;
+	static final int  WAIT_C  = 2;
+	static final int  WAIT_VC = 3;
+	
+	static final long EMPTY   = IDLE;
+	
+	private static final String[] NAMES = { "IDLE", "ACTIVE", "WAIT_C", "WAIT_VC" };
+	
+	private VCState() {}
+	
+	/*
+	 * A credit has returned: stop waiting for credits, and if a flit arrived 
+	 * while the VC was idle make it active
+	 */
+	static long incCredits(long stack, boolean hasFlit) {
+		if(top(stack) == WAIT_C)
+			stack = pop(stack);
+		if(hasFlit && top(stack) == IDLE)
+			stack = push(stack, ACTIVE);
+		return stack;
+	}
+	
+	/*
+	 * A flit has been sent: wait for credits if it used the last one
+	 */
+	static long decCredits(long stack, int credits) {
+		return credits == 1 ? push(stack, WAIT_C) : stack;
+	}
+	
+	static long setActive(long stack) {
+		return top(stack) == ACTIVE ? stack : push(stack, ACTIVE);
+	}
+	
+	static long setWaitingVC(long stack) {
+		return top(stack) == WAIT_VC ? stack : push(stack, WAIT_VC);
+	}
+	
+	static String name(long stack) {
+		return NAMES[top(stack)];
+	}
+	
+	static String toString(long stack) {
+		String s = "";
+		for(; stack != EMPTY; stack = pop(stack))
+			s += name(stack)+" ";
+		return s+NAMES[IDLE]+" ";
+	}
+	
+	static long push(long stack, int state) { return (stack << 2) | state; }
+	static long pop(long stack)             { return stack >>> 2; }
+	static int  top(long stack)             { return (int) (stack & 3); }
+}
@@ -6,89 +6,73 @@
  */ 
 package sim.components;
 
-import java.util.LinkedList;
-
 import sim.Config;
 
 public abstract class VirtualChannel {
 	
-	private enum VCState { IDLE, ACTIVE, WAIT_C, WAIT_VC };
-	
-	private Console    m_console;
+	private Probe      m_probe;
 	private int        m_portNum;
 	private int        m_index;
-	private StateStack m_state;
+	private long       m_state;
 	private int        m_credits;
-	
-	private class StateStack {
-		private LinkedList<VCState> m_stack;
-
-		public StateStack() {
-			m_stack = new LinkedList<VCState>();
-			m_stack.push(VCState.IDLE);
-		}
-		
-		public void reset() {
-			m_stack.clear();
-			m_stack.push(VCState.IDLE);
-		}
-		
-		public String toString() {
-			String s = "";
-			for(VCState vcs : m_stack)
-				s += vcs.name()+" ";
-			return s;
-		}
-
-	   	public void    push(VCState s) { m_stack.addFirst(s); }  
-	    public VCState pop()           { return m_stack.pollFirst(); }
-	    public VCState peek()          { return m_stack.peekFirst(); }
-	}
+	private int        m_bufferSize;
+	private FlitArena  m_arena;
 	
 	public VirtualChannel(int portNum, int index, Console console) {
 		m_portNum = portNum;
 		m_index = index;
-		m_console = console;
-		m_state = new StateStack();
-		m_credits = Config.bufferSize();
+		m_probe = console.probe();
+		m_state = VCState.EMPTY;
+		m_arena = FlitArena.current();
+		m_bufferSize = Config.bufferSize();
+		m_credits = m_bufferSize;
 	}
+	
+	/*
+	 * Called whenever the state, credits or flits of the VC change, so that the 
+	 * port can keep its masks of VCs up to date
+	 */
+	protected abstract void changed();
 
+	/*
+	 * Reactivating an idle VC that holds a flit is a bit of a hack...
+	 */
 	public int incCredits() {
-		if(isWaitingCdt())
-			m_state.pop();
-		
-		// bit of a hack...
-		if(hasFlit() && isIdle())
-			setActive();
-
-		return m_credits++;
+		m_state = VCState.incCredits(m_state, hasFlit());
+		m_credits++;
+		changed();
+		return m_credits - 1;
 	}
 	
 	public int decCredits() {
-		if(getCredits() == 1)
-			m_state.push(VCState.WAIT_C);
-		return m_credits--;
+		m_state = VCState.decCredits(m_state, m_credits);
+		m_credits--;
+		changed();
+		return m_credits + 1;
 	}
 	
 	public void resetVCState() {
-		m_state.reset();
-		m_credits = Config.bufferSize();
+		m_state = VCState.EMPTY;
+		m_credits = m_bufferSize;
+		changed();
 	}
 	
 	public abstract boolean hasFlit();
 	
-	public String  getStateStr()           { return m_state.peek().name(); }
-	public void    popState()              { m_state.pop(); }
-	public void    setActive()             { if(!isActive()) m_state.push(VCState.ACTIVE); }
-	public void    setWaitingVC()          { if(!isWaitingVC()) m_state.push(VCState.WAIT_VC); }
-	public boolean isIdle()                { return m_state.peek().equals(VCState.IDLE); }
-	public boolean isActive()              { return m_state.peek().equals(VCState.ACTIVE); }
-	public boolean isWaitingCdt()          { return m_state.peek().equals(VCState.WAIT_C); }
-	public boolean isWaitingVC()           { return m_state.peek().equals(VCState.WAIT_VC); }
+	public String  getStateStr()           { return VCState.name(m_state); }
+	public void    popState()              { m_state = VCState.pop(m_state); changed(); }
+	public void    setActive()             { m_state = VCState.setActive(m_state); changed(); }
+	public void    setWaitingVC()          { m_state = VCState.setWaitingVC(m_state); changed(); }
+	public boolean isIdle()                { return VCState.top(m_state) == VCState.IDLE; }
+	public boolean isActive()              { return VCState.top(m_state) == VCState.ACTIVE; }
+	public boolean isWaitingCdt()          { return VCState.top(m_state) == VCState.WAIT_C; }
+	public boolean isWaitingVC()           { return VCState.top(m_state) == VCState.WAIT_VC; }
 	public int     getCredits()            { return m_credits; }
-	public boolean hasFullCredits()        { return m_credits == Config.bufferSize(); }
+	public boolean hasFullCredits()        { return m_credits == m_bufferSize; }
 	public int     getPortNum()            { return m_portNum; }
 	public int     getIndex()              { return m_index; }
-	public void    console(String text)    { m_console.console(text); }
-	public String  getStateStack()         { return m_state+""; }
+	public Probe   probe()                 { return m_probe; }
+	public FlitArena getArena()            { return m_arena; }
+	public long    getState()              { return m_state; }
+	public String  getStateStack()         { return VCState.toString(m_state); }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import java.util.Arrays;
+
+/*
+ * Records which nodes have work to do in their router half (the router, its 
+ * output links and the processor links) so that an engine only steps those.
+ * 
+ * A node stays active while it is busy after its copy phase, and is woken by 
+ * the links when a flit or credit is written to a link it drives or delivered 
+ * to one of its input ports, or when its processor generates a packet. Wakes 
+ * are kept separately from the busy flags as they are set by other nodes 
+ * during the copy phase, possibly from other threads.
+ */
+public class ActiveSet {
+
+	private boolean[] m_busy;
+	private boolean[] m_woken;
+	private boolean[] m_active;
+	
+	public ActiveSet(int numNodes) {
+		m_busy   = new boolean[numNodes];
+		m_woken  = new boolean[numNodes];
+		m_active = new boolean[numNodes];
+		reset();
+	}
+	
+	/*
+	 * Decide if a node is stepped this cycle, at the start of its update phase
+	 */
+	public boolean activate(int nodeId) {
+		m_active[nodeId] = m_busy[nodeId] || m_woken[nodeId];
+		m_woken[nodeId] = false;
+		return m_active[nodeId];
+	}
+	
+	/*
+	 * Record if a node still has work to do, at the end of its copy phase
+	 */
+	public void settle(int nodeId, boolean busy) {
+		m_busy[nodeId] = busy;
+	}
+	
+	/*
+	 * Step every node in the first cycle so they all settle
+	 */
+	public void reset() {
+		Arrays.fill(m_busy, true);
+		Arrays.fill(m_woken, false);
+		Arrays.fill(m_active, false);
+	}
+	
+	public int numActive() {
+		int count = 0;
+		for(boolean active : m_active)
+			if(active) count++;
+		return count;
+	}
+	
+	public void    wake(int nodeId)     { m_woken[nodeId] = true; }
+	public boolean isActive(int nodeId) { return m_active[nodeId]; }
+}
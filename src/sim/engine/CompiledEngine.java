@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import sim.Config;
+import sim.Simulator;
+import sim.components.CompiledNetwork;
+import sim.components.Network;
+import sim.components.Node;
+import sim.components.StateArena;
+
+/*
+ * Steps the processors as objects and the routers and links as a compiled 
+ * network of flat arrays, which are built from the topology in place of the 
+ * router and link objects. The results are the same as the serial engine.
+ */
+public class CompiledEngine extends Engine {
+
+	private StateArena      m_arena;
+	private CompiledNetwork m_compiled;
+	
+	public CompiledEngine(Network network) {
+		super(network.getNodes());
+		m_arena = new StateArena(Config.offHeap());
+		m_compiled = new CompiledNetwork(network, m_arena);
+		System.out.println("Created compiled engine with "+m_compiled.numInputPorts()+" input ports and "+
+				m_compiled.numLinks()+" links in "+(m_arena.bytes() >> 10)+" KB "+
+				(m_arena.isOffHeap() ? "off" : "on")+" the heap\n");
+	}
+	
+	public void step() {
+		for(Node n : m_nodes)
+			n.updateProcessor();
+		m_compiled.update();
+		
+		for(Node n : m_nodes)
+			n.copyProcessor();
+		m_compiled.copy(Simulator.clock());
+	}
+	
+	public void initRouting() {
+		m_compiled.compileRouting();
+	}
+	
+	public boolean isIdle() {
+		return m_compiled.isIdle();
+	}
+	
+	public void reset() {
+		super.reset();
+		m_compiled.reset();
+	}
+	
+	/*
+	 * Free the state held off the heap when the network is replaced, rather than 
+	 * when the collector gets to it
+	 */
+	public void shutdown() {
+		m_arena.release();
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+
+import sim.Config;
+import sim.components.FlitArena;
+import sim.components.Network;
+import sim.components.RouterLink;
+import sim.stats.Stats;
+import sim.topology.TopologyGraph;
+
+/*
+ * Shards the network over a group of processes on one host. Each process steps 
+ * the nodes of its own part with a PDES engine, and the flits and credits due on 
+ * links to the nodes of other processes are sent to them at the end of each 
+ * window. The packet counts are exchanged with them too and the samples are merged 
+ * at the end of each sample period, so every process takes the same decisions 
+ * and the first one reports the same results as a single process.
+ * 
+ * The network is partitioned from its topology before it is built, so each 
+ * process only builds its own nodes and the links to and from them. A link 
+ * from the node of another process is only built as far as its mailbox.
+ */
+public class DistributedEngine extends PdesEngine {
+
+	private static final byte FLIT   = 0;
+	private static final byte CREDIT = 1;
+	private static final byte END    = 2;
+	
+	private ProcessGroup   m_group;
+	private int[]          m_localNodes;
+	private RouterLink[]   m_links;
+	private RouterLink[][] m_sendFlits;
+	private RouterLink[][] m_sendCredits;
+	private FlitArena      m_arena;
+	
+	private DistributedEngine(Network network, int[] processOf, int[][] parts, ProcessGroup group) {
+		super(network.getNodes(), network.getLinks(), parts);
+		
+		int rank = group.rank();
+		m_group = group;
+		m_arena = FlitArena.current();
+		m_localNodes = Partitioner.members(processOf, group.size())[rank];
+		
+		// Links to the nodes of each other process carry flits there and credits back
+		m_links = network.getLinks();
+		m_sendFlits = new RouterLink[group.size()][];
+		m_sendCredits = new RouterLink[group.size()][];
+		for(int p=0; p<group.size(); p++) {
+			LinkedList<RouterLink> flits = new LinkedList<RouterLink>();
+			LinkedList<RouterLink> credits = new LinkedList<RouterLink>();
+			for(RouterLink l : m_links) {
+				if(l == null || p == rank)
+					continue;
+				if(processOf[l.getFromId()] == rank && processOf[l.getToId()] == p)
+					flits.add(l);
+				if(processOf[l.getFromId()] == p && processOf[l.getToId()] == rank)
+					credits.add(l);
+			}
+			m_sendFlits[p] = flits.toArray(new RouterLink[flits.size()]);
+			m_sendCredits[p] = credits.toArray(new RouterLink[credits.size()]);
+		}
+		
+		System.out.println("Created distributed engine process "+rank+" of "+group.size()+
+				" with "+m_localNodes.length+" nodes\n");
+	}
+	
+	/*
+	 * Return the process of each node of a topology
+	 */
+	public static int[] partition(TopologyGraph graph) {
+		int processes = numProcesses(graph);
+		int[] processOf = Partitioner.partition(graph, processes);
+		System.out.println("Partitioned network into "+processes+" processes with a cut of "+
+				Partitioner.cutSize(graph, processOf)+" links\n");
+		return processOf;
+	}
+	
+	private static int numProcesses(TopologyGraph graph) {
+		return Math.max(1, Math.min(Config.processes(), graph.numNodes()));
+	}
+	
+	public static DistributedEngine create(Network network) {
+		int processes = numProcesses(network.getGraph());
+		int[] processOf = network.getProcessOf();
+		
+		// Split the nodes of this process between its threads
+		int[] local = Partitioner.members(processOf, processes)[Config.rank()];
+		int threads = Math.max(1, Math.min(Config.numThreads(), local.length));
+		int[][] parts = new int[threads][];
+		for(int i=0; i<threads; i++) {
+			int first = (int) ((long) i * local.length / threads);
+			int last = (int) ((long) (i+1) * local.length / threads);
+			parts[i] = new int[last - first];
+			System.arraycopy(local, first, parts[i], 0, last - first);
+		}
+		
+		return new DistributedEngine(network, processOf, parts, new ProcessGroup(Config.rank(), processes));
+	}
+	
+	/*
+	 * Send the signals posted over the links to each other process in the last 
+	 * window, which are all due in the next one, with the packets generated and 
+	 * received by this process
+	 */
+	protected void exchange() {
+		int[] packets = Stats.takeNewPackets();
+		byte[][] messages = new byte[m_group.size()][];
+		
+		try {
+			for(int p=0; p<m_group.size(); p++) {
+				if(p == m_group.rank())
+					continue;
+				
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(packets[0]);
+				out.writeInt(packets[1]);
+				out.writeInt(packets[2]);
+				
+				LinkedList<Long> due = new LinkedList<Long>();
+				LinkedList<Integer> flits = new LinkedList<Integer>();
+				for(RouterLink l : m_sendFlits[p]) {
+					l.getFlitMailbox().drainTo(due, flits);
+					while(!flits.isEmpty()) {
+						int flit = flits.removeFirst();
+						out.writeByte(FLIT);
+						out.writeInt(l.getId());
+						out.writeLong(due.removeFirst());
+						m_arena.write(flit, out);
+						if(m_arena.isRecord(flit))
+							m_arena.free(flit);
+					}
+				}
+				
+				LinkedList<Integer> credits = new LinkedList<Integer>();
+				for(RouterLink l : m_sendCredits[p]) {
+					l.getCreditMailbox().drainTo(due, credits);
+					while(!credits.isEmpty()) {
+						out.writeByte(CREDIT);
+						out.writeInt(l.getId());
+						out.writeLong(due.removeFirst());
+						out.writeInt(credits.removeFirst());
+					}
+				}
+				
+				out.writeByte(END);
+				messages[p] = bytes.toByteArray();
+			}
+			
+			m_group.exchange(messages, new ProcessGroup.Receiver() {
+				public void receive(int rank, DataInputStream in) throws IOException {
+					Stats.addPackets(in.readInt(), in.readInt(), in.readInt());
+					for(byte type=in.readByte(); type!=END; type=in.readByte()) {
+						RouterLink l = m_links[in.readInt()];
+						long due = in.readLong();
+						if(type == FLIT)
+							l.getFlitMailbox().post(due, m_arena.read(in));
+						else
+							l.getCreditMailbox().post(due, in.readInt());
+					}
+				}
+			});
+		} catch(IOException e) {
+			System.err.println("Error: lost connection between processes: "+e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	/*
+	 * Stop the threads of this process and close its connections to the others
+	 */
+	public void shutdown() {
+		super.shutdown();
+		m_group.close();
+	}
+	
+	/*
+	 * Merge the samples recorded by every process, so each has the whole sample
+	 */
+	public void mergeStats() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Stats.writeSample(new DataOutputStream(bytes), m_localNodes);
+			byte[][] messages = new byte[m_group.size()][];
+			for(int p=0; p<m_group.size(); p++)
+				messages[p] = bytes.toByteArray();
+			
+			Stats.clearRemoteSamples();
+			m_group.exchange(messages, new ProcessGroup.Receiver() {
+				public void receive(int rank, DataInputStream in) throws IOException {
+					Stats.mergeSample(in);
+				}
+			});
+		} catch(IOException e) {
+			System.err.println("Error: lost connection between processes: "+e.getMessage());
+			System.exit(1);
+		}
+	}
+}
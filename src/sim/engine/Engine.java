@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import sim.Config;
+import sim.components.Network;
+import sim.components.Node;
+
+/*
+ * An engine performs the update and copy phases of a simulation step over 
+ * all of the nodes in the network. If an active set is used, the router half 
+ * of a node is only stepped when it has flits or credits to deal with.
+ */
+public abstract class Engine {
+
+	protected Node[]    m_nodes;
+	protected ActiveSet m_activeSet;
+	private LongAdder[] m_busyTime;
+	private LongAdder   m_otherBusyTime;
+	
+	protected Engine(Node[] nodes) {
+		m_nodes = nodes;
+		m_activeSet = null;
+		
+		if(Config.activeSet()) {
+			m_activeSet = new ActiveSet(nodes.length);
+			for(Node n : nodes)
+				if(n != null) n.setActiveSet(m_activeSet);
+			System.out.println("Using active set scheduling\n");
+		}
+	}
+	
+	public abstract void step();
+	
+	/*
+	 * Advance by up to a number of cycles and return how many were done. By 
+	 * default an engine does one step at a time
+	 */
+	public int run(int cycles) {
+		step();
+		return 1;
+	}
+	
+	/*
+	 * Combine the statistics of the sample period, if they are recorded separately 
+	 * by more than one process
+	 */
+	public void mergeStats() {
+	}
+	
+	/*
+	 * Called once the routers have been given their routing functions
+	 */
+	public void initRouting() {
+	}
+	
+	/*
+	 * Whether the engine holds no signals of its own outside of the nodes
+	 */
+	public boolean isIdle() {
+		return true;
+	}
+	
+	public void reset() {
+		if(m_activeSet != null)
+			m_activeSet.reset();
+	}
+	
+	/*
+	 * Stop any threads the engine started and free what it holds, once it will 
+	 * not be stepped again
+	 */
+	public void shutdown() {
+	}
+	
+	/*
+	 * Record the time each thread spends doing work, to show how well the work 
+	 * is balanced between them. Work done by a thread that is not one of them 
+	 * is counted separately
+	 */
+	protected void initBusyTime(int numThreads) {
+		m_busyTime = new LongAdder[numThreads];
+		for(int i=0; i<numThreads; i++)
+			m_busyTime[i] = new LongAdder();
+		m_otherBusyTime = new LongAdder();
+	}
+	
+	protected void addBusyTime(int thread, long nanos) {
+		m_busyTime[thread].add(nanos);
+	}
+	
+	protected void addOtherBusyTime(long nanos) {
+		m_otherBusyTime.add(nanos);
+	}
+	
+	public String dumpInfo() {
+		if(m_busyTime == null)
+			return "";
+		
+		long max = 0;
+		long total = 0;
+		for(LongAdder t : m_busyTime) {
+			max = Math.max(max, t.sum());
+			total += t.sum();
+		}
+		
+		String s = "[ENGINE]===========================================\n";
+		for(int i=0; i<m_busyTime.length; i++)
+			s += String.format("Thread %-3d busy       %.1f ms\n", i, m_busyTime[i].sum() / 1e6);
+		if(m_otherBusyTime.sum() > 0)
+			s += String.format("Other threads busy   %.1f ms\n", m_otherBusyTime.sum() / 1e6);
+		s += String.format("Busy balance         %.2f\n", 
+				max > 0 ? total / (double) (max * m_busyTime.length) : 1.0);
+		s += "---------------------------------------------------";
+		return s;
+	}
+	
+	protected void updateRouter(Node n) {
+		if(m_activeSet == null || m_activeSet.activate(n.getId()))
+			n.updateRouter();
+	}
+	
+	protected void copy(Node n) {
+		n.copyProcessor();
+		if(m_activeSet == null) {
+			n.copyRouter();
+		} else if(m_activeSet.isActive(n.getId())) {
+			n.copyRouter();
+			m_activeSet.settle(n.getId(), n.isBusy());
+		}
+	}
+	
+	/*
+	 * Split the nodes into a partition per thread, returning the nodes in each
+	 */
+	protected static int[][] partition(Network network, int numThreads) {
+		int numParts = Math.max(1, Math.min(numThreads, network.numNodes()));
+		int[] partOf = Partitioner.partition(network.getGraph(), numParts);
+		System.out.println("Partitioned network into "+numParts+" parts with a cut of "+
+				Partitioner.cutSize(network.getGraph(), partOf)+" links\n");
+		return Partitioner.members(partOf, numParts);
+	}
+	
+	public static Engine createEngine(Network network) {
+		Node[] nodes = network.getNodes();
+		
+		switch(Config.engine()) {
+		
+		case SERIAL:
+			return new SerialEngine(nodes);
+			
+		case PARALLEL:
+			return new ParallelEngine(nodes, partition(network, Config.numThreads()));
+			
+		case PDES:
+			return new PdesEngine(nodes, network.getLinks(), partition(network, Config.numThreads()));
+			
+		case STEALING:
+			return new StealingEngine(nodes, Config.numThreads());
+			
+		case DISTRIBUTED:
+			return DistributedEngine.create(network);
+			
+		case COMPILED:
+			return new CompiledEngine(network);
+			
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import sim.components.Node;
+
+/*
+ * Splits the nodes into a partition per thread and performs the 
+ * update and copy phases of each step in parallel, with a barrier between them.
+ * 
+ * Nodes only read signals written during the copy phase and only write signals 
+ * in the copy phase, so the phases are free of races. Each processor draws from 
+ * its own random stream and records its statistics in its own recorder, which are 
+ * merged in node order at the end of each sample period, so the results are 
+ * exactly the same as the serial engine.
+ */
+public class ParallelEngine extends Engine {
+
+	private int[][]          m_parts;
+	private CyclicBarrier    m_barrier;
+	private volatile boolean m_stopped;
+	
+	class Worker extends Thread {
+		
+		private int m_partition;
+		
+		public Worker(int partition) {
+			super("engine-"+partition);
+			m_partition = partition;
+			setDaemon(true);
+		}
+		
+		public void run() {
+			try {
+				while(true) {
+					await();
+					if(m_stopped)
+						return;
+					updatePartition(m_partition);
+					await();
+					copyPartition(m_partition);
+					await();
+				}
+			} catch(RuntimeException e) {
+				System.err.println("Error: engine thread "+m_partition+" failed");
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+	}
+	
+	public ParallelEngine(Node[] nodes, int[][] parts) {
+		super(nodes);
+		
+		int threads = parts.length;
+		m_parts = parts;
+		
+		// The calling thread does the work for partition 0
+		m_barrier = new CyclicBarrier(threads);
+		initBusyTime(threads);
+		for(int i=1; i<threads; i++)
+			new Worker(i).start();
+		
+		System.out.println("Created parallel engine with "+threads+" threads\n");
+	}
+	
+	/*
+	 * Release the workers from the barrier they wait at between steps, to see 
+	 * that they are stopped and exit
+	 */
+	public void shutdown() {
+		if(m_stopped)
+			return;
+		m_stopped = true;
+		await();
+	}
+	
+	public void step() {
+		await();
+		updatePartition(0);
+		await();
+		copyPartition(0);
+		await();
+	}
+	
+	private void updatePartition(int partition) {
+		long start = System.nanoTime();
+		for(int i : m_parts[partition]) {
+			m_nodes[i].updateProcessor();
+			updateRouter(m_nodes[i]);
+		}
+		addBusyTime(partition, System.nanoTime() - start);
+	}
+	
+	private void copyPartition(int partition) {
+		long start = System.nanoTime();
+		for(int i : m_parts[partition])
+			copy(m_nodes[i]);
+		addBusyTime(partition, System.nanoTime() - start);
+	}
+	
+	private void await() {
+		try {
+			m_barrier.await();
+		} catch(InterruptedException e) {
+			throw new RuntimeException("engine interrupted", e);
+		} catch(BrokenBarrierException e) {
+			throw new RuntimeException("engine barrier broken", e);
+		}
+	}
+}
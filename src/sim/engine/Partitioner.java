@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import sim.Config;
+import sim.topology.TopologyGraph;
+
+/*
+ * Assigns the nodes of a topology to a number of balanced partitions, with as
+ * few links between partitions as possible. Every link in the cut makes the
+ * threads stepping the partitions share signals, so an engine stepping the
+ * partitions in parallel is only as good as the cut.
+ *
+ * Meshes and tori are split into blocks of coordinates. Degenerate topologies, or
+ * a number of partitions that does not factor over the dimensions, are split by
+ * growing each partition greedily from a seed and then refining the boundary.
+ */
+public class Partitioner {
+
+	// Allowed imbalance when refining, as a fraction of the partition size
+	private static final double BALANCE = 0.03;
+
+	private int[][] m_adj;
+	private int[]   m_partOf;
+	private int[]   m_sizes;
+	private int     m_numParts;
+
+	private Partitioner(TopologyGraph graph, int numParts) {
+		m_numParts = numParts;
+		m_partOf = new int[graph.numNodes()];
+		m_sizes = new int[numParts];
+		m_adj = getAdjacency(graph);
+	}
+
+	/*
+	 * Return the partition of each node
+	 */
+	public static int[] partition(TopologyGraph graph, int numParts) {
+		Partitioner p = new Partitioner(graph, Math.max(1, Math.min(numParts, graph.numNodes())));
+
+		boolean blocked = false;
+		switch(Config.topology()) {
+		case MESH:
+		case TORUS:
+			blocked = p.blockCoordinates(Config.k(), Config.n());
+			break;
+		}
+
+		if(!blocked) {
+			p.growGreedy();
+			p.refine();
+		}
+
+		return p.m_partOf;
+	}
+
+	/*
+	 * Return the number of links from one partition to another
+	 */
+	public static int cutSize(TopologyGraph graph, int[] partOf) {
+		int cut = 0;
+		for(int l=0; l<graph.numLinks(); l++)
+			if(partOf[graph.getFrom(l)] != partOf[graph.getTo(l)])
+				cut++;
+		return cut;
+	}
+
+	/*
+	 * Return the nodes in each partition, in node order
+	 */
+	public static int[][] members(int[] partOf, int numParts) {
+		int[] sizes = new int[numParts];
+		for(int p : partOf)
+			sizes[p]++;
+
+		int[][] members = new int[numParts][];
+		for(int i=0; i<numParts; i++)
+			members[i] = new int[sizes[i]];
+
+		Arrays.fill(sizes, 0);
+		for(int node=0; node<partOf.length; node++)
+			members[partOf[node]][sizes[partOf[node]]++] = node;
+		return members;
+	}
+
+	/*
+	 * Split each dimension into a number of blocks, so that the product of the
+	 * blocks is the number of partitions. Factors are given to the dimension with
+	 * the longest block, to keep the blocks as square as possible
+	 */
+	private boolean blockCoordinates(int k, int n) {
+		int[] blocks = new int[n];
+		Arrays.fill(blocks, 1);
+
+		LinkedList<Integer> factors = primeFactors(m_numParts);
+		while(!factors.isEmpty()) {
+			int f = factors.removeLast();
+			int dim = -1;
+			for(int d=0; d<n; d++) {
+				if(blocks[d] * f <= k && (dim == -1 || blocks[d] < blocks[dim]))
+					dim = d;
+			}
+			if(dim == -1)
+				return false;
+			blocks[dim] *= f;
+		}
+
+		for(int node=0; node<m_partOf.length; node++) {
+			int part = 0;
+			int stride = 1;
+			for(int d=0, kToD=1; d<n; d++, kToD*=k) {
+				int posInDim = (node / kToD) % k;
+				part += (posInDim * blocks[d] / k) * stride;
+				stride *= blocks[d];
+			}
+			m_partOf[node] = part;
+			m_sizes[part]++;
+		}
+		return true;
+	}
+
+	/*
+	 * Grow each partition in turn from a seed, each time adding the frontier node 
+	 * with the most links into the partition so far. This is greedy graph growing 
+	 * rather than a breadth first search, and there is no coarsening as there is 
+	 * in a multilevel partitioner; refining the boundary afterwards recovers most 
+	 * of the difference on the regular topologies simulated.
+	 * 
+	 * The frontier is held in a list for each gain, which is at most the degree of 
+	 * a node, so the best node is found and a gain raised in constant time and a 
+	 * partition of N nodes grows in O(N + links). If the frontier runs out before 
+	 * the partition is full, it carries on from the next unassigned node in order
+	 */
+	private void growGreedy() {
+		Arrays.fill(m_partOf, -1);
+		int numNodes = m_partOf.length;
+		int maxDegree = 0;
+		for(int[] a : m_adj)
+			maxDegree = Math.max(maxDegree, a.length);
+
+		int[] gain = new int[numNodes];
+		int[] next = new int[numNodes];
+		int[] prev = new int[numNodes];
+		int[] head = new int[maxDegree + 1];
+		int[] touched = new int[numNodes];
+		Arrays.fill(gain, -1);
+		Arrays.fill(head, -1);
+		int assigned = 0;
+		int cursor = 0;
+
+		for(int part=0; part<m_numParts; part++) {
+			int target = (numNodes - assigned) / (m_numParts - part);
+			int numTouched = 0;
+			int best = 0;
+			int v = seed();
+
+			while(m_sizes[part] < target) {
+				if(v == -1) {
+					while(m_partOf[cursor] != -1)
+						cursor++;
+					v = cursor;
+				}
+
+				m_partOf[v] = part;
+				m_sizes[part]++;
+				assigned++;
+				if(gain[v] != -1)
+					unlink(v, gain, next, prev, head);
+
+				// Raise the gain of each unassigned neighbour, adding it to the frontier
+				for(int u : m_adj[v]) {
+					if(m_partOf[u] != -1)
+						continue;
+					if(gain[u] == -1) {
+						touched[numTouched++] = u;
+						gain[u] = 0;
+					} else {
+						unlink(u, gain, next, prev, head);
+					}
+					gain[u]++;
+					link(u, gain, next, prev, head);
+					best = Math.max(best, gain[u]);
+				}
+
+				while(best > 0 && head[best] == -1)
+					best--;
+				v = head[best];
+			}
+
+			// Empty the frontier for the next partition
+			for(int i=0; i<numTouched; i++) {
+				int u = touched[i];
+				if(m_partOf[u] == -1)
+					unlink(u, gain, next, prev, head);
+				gain[u] = -1;
+			}
+		}
+	}
+
+	private static void link(int v, int[] gain, int[] next, int[] prev, int[] head) {
+		int g = gain[v];
+		next[v] = head[g];
+		prev[v] = -1;
+		if(head[g] != -1)
+			prev[head[g]] = v;
+		head[g] = v;
+	}
+
+	private static void unlink(int v, int[] gain, int[] next, int[] prev, int[] head) {
+		if(prev[v] != -1)
+			next[prev[v]] = next[v];
+		else
+			head[gain[v]] = next[v];
+		if(next[v] != -1)
+			prev[next[v]] = prev[v];
+	}
+
+	/*
+	 * The unassigned node with the fewest unassigned neighbours, found once for 
+	 * each partition
+	 */
+	private int seed() {
+		int seed = -1;
+		int seedDegree = Integer.MAX_VALUE;
+		for(int v=0; v<m_partOf.length; v++) {
+			if(m_partOf[v] != -1)
+				continue;
+			int degree = 0;
+			for(int u : m_adj[v])
+				if(m_partOf[u] == -1) degree++;
+			if(degree < seedDegree) {
+				seed = v;
+				seedDegree = degree;
+			}
+		}
+		return seed;
+	}
+
+	/*
+	 * Move nodes on the boundary to a neighbouring partition when that reduces the
+	 * cut, while keeping the partitions balanced, until no move helps
+	 */
+	private void refine() {
+		int target = m_partOf.length / m_numParts;
+		int slack = Math.max(1, (int) (target * BALANCE));
+		int[] links = new int[m_numParts];
+
+		boolean moved = true;
+		while(moved) {
+			moved = false;
+			for(int v=0; v<m_partOf.length; v++) {
+				int from = m_partOf[v];
+				Arrays.fill(links, 0);
+				for(int u : m_adj[v])
+					links[m_partOf[u]]++;
+
+				int to = from;
+				for(int p=0; p<m_numParts; p++) {
+					if(links[p] > links[to] && m_sizes[p] < target + slack)
+						to = p;
+				}
+				if(to != from && m_sizes[from] > target - slack) {
+					m_partOf[v] = to;
+					m_sizes[from]--;
+					m_sizes[to]++;
+					moved = true;
+				}
+			}
+		}
+	}
+
+	/*
+	 * The neighbours of each node through links in either direction
+	 */
+	private static int[][] getAdjacency(TopologyGraph graph) {
+		int[][] adj = new int[graph.numNodes()][];
+		for(int v=0; v<adj.length; v++) {
+			int[] out = graph.getOutLinks(v);
+			int[] in = graph.getInLinks(v);
+			int[] a = new int[out.length + in.length];
+			int i = 0;
+			for(int l : out)
+				a[i++] = graph.getTo(l);
+			for(int l : in)
+				a[i++] = graph.getFrom(l);
+			adj[v] = a;
+		}
+		return adj;
+	}
+
+	private static LinkedList<Integer> primeFactors(int x) {
+		LinkedList<Integer> factors = new LinkedList<Integer>();
+		for(int f=2; x>1; f++) {
+			while(x % f == 0) {
+				factors.add(f);
+				x /= f;
+			}
+		}
+		return factors;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import sim.Clock;
+import sim.Simulator;
+import sim.components.Node;
+import sim.components.RouterLink;
+
+/*
+ * A conservative parallel discrete event engine. The nodes are split into a 
+ * partition per thread and each partition is advanced on its own 
+ * clock, with the threads only synchronising at the end of a window of cycles.
+ * 
+ * A flit or credit written to a link takes the link delay to arrive, so a signal 
+ * sent over a link between two partitions in one window is never due until the 
+ * next. This lookahead sets the window length to the smallest delay of those 
+ * links, and the signals are carried between partitions through mailboxes on the 
+ * links rather than along them. Windows are aligned to multiples of the window 
+ * length, so a run of any number of cycles can stop and resume between them.
+ * The nodes of each partition are given the clock of their partition.
+ */
+public class PdesEngine extends Engine {
+
+	private int[][]                  m_parts;
+	private Clock[]                  m_clocks;
+	private RouterLink[][]           m_inLinks;
+	private RouterLink[][]           m_outLinks;
+	private int                      m_window;
+	private long                     m_start;
+	private int                      m_length;
+	private CyclicBarrier            m_barrier;
+	private volatile boolean         m_stopped;
+	
+	class Worker extends Thread {
+		
+		private int   m_partition;
+		private Clock m_clock;
+		
+		public Worker(int partition) {
+			super("pdes-"+partition);
+			m_partition = partition;
+			m_clock = m_clocks[partition];
+			setDaemon(true);
+		}
+		
+		public void run() {
+			try {
+				while(true) {
+					await();
+					if(m_stopped)
+						return;
+					long start = System.nanoTime();
+					for(long c=m_start; c<m_start+m_length; c++) {
+						m_clock.set(c);
+						stepPartition(m_partition);
+					}
+					addBusyTime(m_partition, System.nanoTime() - start);
+					await();
+				}
+			} catch(RuntimeException e) {
+				System.err.println("Error: engine thread "+m_partition+" failed");
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+	}
+	
+	public PdesEngine(Node[] nodes, RouterLink[] links, int[][] parts) {
+		super(nodes);
+		
+		// Nodes that are in no partition are stepped by another process
+		int threads = parts.length;
+		int[] partitionOf = new int[nodes.length];
+		Arrays.fill(partitionOf, -1);
+		m_parts = parts;
+		m_clocks = new Clock[threads];
+		for(int i=0; i<threads; i++) {
+			m_clocks[i] = new Clock();
+			for(int j : parts[i]) {
+				partitionOf[j] = i;
+				nodes[j].setClock(m_clocks[i]);
+			}
+		}
+		
+		// Find the links between partitions and the lookahead they give. Links 
+		// between the nodes of other processes are not built
+		m_window = Integer.MAX_VALUE;
+		LinkedList<RouterLink> boundary = new LinkedList<RouterLink>();
+		for(RouterLink l : links) {
+			if(l != null && partitionOf[l.getFromId()] != partitionOf[l.getToId()]) {
+				boundary.add(l);
+				m_window = Math.min(m_window, l.getDelay());
+			}
+		}
+		if(m_window < 1) {
+			System.err.println("Error: links between partitions must have a delay of at least 1");
+			System.exit(1);
+		}
+		
+		m_inLinks = new RouterLink[threads][];
+		m_outLinks = new RouterLink[threads][];
+		for(int i=0; i<threads; i++) {
+			LinkedList<RouterLink> in = new LinkedList<RouterLink>();
+			LinkedList<RouterLink> out = new LinkedList<RouterLink>();
+			for(RouterLink l : boundary) {
+				if(partitionOf[l.getToId()] == i) in.add(l);
+				if(partitionOf[l.getFromId()] == i) out.add(l);
+			}
+			m_inLinks[i] = in.toArray(new RouterLink[in.size()]);
+			m_outLinks[i] = out.toArray(new RouterLink[out.size()]);
+		}
+		for(RouterLink l : boundary)
+			l.makeBoundary(m_window);
+		
+		// The calling thread only coordinates the windows
+		m_barrier = new CyclicBarrier(threads + 1);
+		initBusyTime(threads);
+		for(int i=0; i<threads; i++)
+			new Worker(i).start();
+		
+		System.out.println("Created PDES engine with "+threads+" partitions, "+boundary.size()+
+				" boundary links and a window of "+
+				(boundary.isEmpty() ? "any length" : m_window+" cycles")+"\n");
+	}
+	
+	public void step() {
+		run(1);
+	}
+	
+	/*
+	 * Release the workers from the barrier they wait at between windows, to see 
+	 * that they are stopped and exit
+	 */
+	public void shutdown() {
+		if(m_stopped)
+			return;
+		m_stopped = true;
+		await();
+	}
+	
+	/*
+	 * Advance every partition to the end of the current window, or by the number 
+	 * of cycles if that is sooner
+	 */
+	public int run(int cycles) {
+		m_start = Simulator.clock();
+		m_length = cycles;
+		if(m_window != Integer.MAX_VALUE)
+			m_length = (int) Math.min(cycles, m_window - m_start % m_window);
+		
+		await();
+		await();
+		exchange();
+		return m_length;
+	}
+	
+	/*
+	 * Called between windows, when all of the partitions have stopped
+	 */
+	protected void exchange() {
+	}
+	
+	/*
+	 * Whether there are no signals waiting in the mailboxes between partitions
+	 */
+	public boolean isIdle() {
+		for(RouterLink[] links : m_outLinks)
+			for(RouterLink l : links)
+				if(!l.isBoundaryEmpty())
+					return false;
+		return true;
+	}
+	
+	/*
+	 * Perform one step of a partition. Signals that were due over the boundary 
+	 * this cycle are delivered after the copy phase, as they would have been 
+	 * delivered by the links during it
+	 */
+	private void stepPartition(int partition) {
+		for(int i : m_parts[partition]) {
+			m_nodes[i].updateProcessor();
+			updateRouter(m_nodes[i]);
+		}
+		
+		for(int i : m_parts[partition])
+			copy(m_nodes[i]);
+		
+		for(RouterLink l : m_inLinks[partition])
+			l.deliverBoundaryFlit();
+		for(RouterLink l : m_outLinks[partition])
+			l.deliverBoundaryCredit();
+	}
+	
+	private void await() {
+		try {
+			m_barrier.await();
+		} catch(InterruptedException e) {
+			throw new RuntimeException("engine interrupted", e);
+		} catch(BrokenBarrierException e) {
+			throw new RuntimeException("engine barrier broken", e);
+		}
+	}
+}
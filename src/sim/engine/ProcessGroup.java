@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedList;
+import java.util.List;
+
+import sim.Config;
+
+/*
+ * A group of simulator processes on one host, connected to each other by loopback 
+ * sockets. The first process launches the others with the same configuration and 
+ * a rank to identify them.
+ */
+public class ProcessGroup {
+
+	// How long to keep trying to connect to another process
+	private static final int CONNECT_TIMEOUT = 30000;
+	
+	private int                m_rank;
+	private int                m_size;
+	private DataInputStream[]  m_in;
+	private DataOutputStream[] m_out;
+	
+	/*
+	 * Read a message sent by another process
+	 */
+	public interface Receiver {
+		public void receive(int rank, DataInputStream in) throws IOException;
+	}
+	
+	public ProcessGroup(int rank, int size) {
+		m_rank = rank;
+		m_size = size;
+		m_in = new DataInputStream[size];
+		m_out = new DataOutputStream[size];
+		
+		try {
+			if(rank == 0)
+				launch();
+			connect();
+		} catch(IOException e) {
+			System.err.println("Error: could not connect process "+rank+": "+e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	/*
+	 * Start a JVM for each of the other processes
+	 */
+	private void launch() throws IOException {
+		List<String> command = new LinkedList<String>();
+		command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("sim.Main");
+		command.add(Config.configFile());
+		for(String arg : Config.args()) {
+			if(!arg.startsWith("rank=") && !arg.startsWith("rand_seed="))
+				command.add(arg);
+		}
+		command.add("rand_seed="+Config.seed());
+		
+		for(int i=1; i<m_size; i++) {
+			List<String> c = new LinkedList<String>(command);
+			c.add("rank="+i);
+			ProcessBuilder builder = new ProcessBuilder(c);
+			builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			builder.start();
+		}
+	}
+	
+	/*
+	 * Connect to each lower ranked process and accept a connection from each 
+	 * higher ranked one
+	 */
+	private void connect() throws IOException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		ServerSocket server = new ServerSocket(Config.port() + m_rank, m_size, loopback);
+		
+		for(int i=0; i<m_rank; i++) {
+			Socket socket = null;
+			long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+			while(socket == null) {
+				try {
+					socket = new Socket(loopback, Config.port() + i);
+				} catch(IOException e) {
+					if(System.currentTimeMillis() > deadline)
+						throw e;
+					try {
+						Thread.sleep(100);
+					} catch(InterruptedException e2) {
+						throw new IOException("interrupted");
+					}
+				}
+			}
+			open(i, socket);
+			m_out[i].writeInt(m_rank);
+			m_out[i].flush();
+		}
+		
+		for(int i=m_rank+1; i<m_size; i++) {
+			Socket socket = server.accept();
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			open(in.readInt(), socket);
+		}
+		server.close();
+	}
+	
+	private void open(int rank, Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		m_in[rank] = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		m_out[rank] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+	
+	/*
+	 * Send a message to every other process and receive one from each. The pairs 
+	 * of processes exchange in order of rank, the lower ranked one sending first, 
+	 * so no process is left blocked sending to one that is not receiving
+	 */
+	public void exchange(byte[][] messages, Receiver receiver) throws IOException {
+		for(int i=0; i<m_size; i++) {
+			if(i == m_rank)
+				continue;
+			if(m_rank < i) {
+				send(i, messages[i]);
+				receive(i, receiver);
+			} else {
+				receive(i, receiver);
+				send(i, messages[i]);
+			}
+		}
+	}
+	
+	private void send(int rank, byte[] message) throws IOException {
+		m_out[rank].writeInt(message.length);
+		m_out[rank].write(message);
+		m_out[rank].flush();
+	}
+	
+	private void receive(int rank, Receiver receiver) throws IOException {
+		byte[] message = new byte[m_in[rank].readInt()];
+		m_in[rank].readFully(message);
+		receiver.receive(rank, new DataInputStream(new ByteArrayInputStream(message)));
+	}
+	
+	/*
+	 * Close the connections to the other processes
+	 */
+	public void close() {
+		for(int i=0; i<m_size; i++) {
+			try {
+				if(m_in[i] != null)
+					m_in[i].close();
+				if(m_out[i] != null)
+					m_out[i].close();
+			} catch(IOException e) {
+			}
+			m_in[i] = null;
+			m_out[i] = null;
+		}
+	}
+	
+	public int rank() { return m_rank; }
+	public int size() { return m_size; }
+}
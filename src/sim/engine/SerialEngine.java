@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import sim.components.Node;
+
+public class SerialEngine extends Engine {
+
+	public SerialEngine(Node[] nodes) {
+		super(nodes);
+	}
+	
+	public void step() {
+		for(Node n : m_nodes) {
+			n.updateProcessor();
+			updateRouter(n);
+		}
+		
+		for(Node n : m_nodes)
+			copy(n);
+	}
+}
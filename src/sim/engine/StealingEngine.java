@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.engine;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import sim.Config;
+import sim.components.Node;
+
+/*
+ * Performs the update and copy phases of each step as fork/join tasks over the 
+ * nodes, so idle threads steal work from busy ones. Tasks are split in half by 
+ * the cost of their nodes, measured as the number of flits each node moved in 
+ * the last sample period, so the split follows traffic hotspots as they move.
+ * 
+ * As for the parallel engine, the phases are free of races and the results are 
+ * the same as the serial engine.
+ * 
+ * The pool retires idle workers and starts new ones, so a worker takes the index 
+ * of its busy time from a free list and gives it back when it terminates. The 
+ * time of the thread that invokes each phase, which may run some of its tasks, 
+ * and of any spare workers the pool starts beyond its parallelism is counted as 
+ * that of other threads.
+ */
+public class StealingEngine extends Engine {
+
+	// Number of tasks per thread to split each phase into
+	private static final int TASKS_PER_THREAD = 4;
+	
+	private ForkJoinPool        m_pool;
+	private int                 m_numThreads;
+	private long[]              m_prefixCost;
+	private long                m_grain;
+	private int                 m_cycles;
+	private int                 m_samplePeriod;
+	private ArrayDeque<Integer> m_freeThreads;
+	
+	class Worker extends ForkJoinWorkerThread {
+		
+		private int m_thread;
+		
+		public Worker(ForkJoinPool pool, int thread) {
+			super(pool);
+			m_thread = thread;
+			setName("stealing-"+thread);
+		}
+		
+		protected void onTermination(Throwable exception) {
+			releaseThread(m_thread);
+			super.onTermination(exception);
+		}
+	}
+	
+	/*
+	 * Perform a phase for the nodes in [first, last)
+	 */
+	class Phase extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private boolean m_copy;
+		private int     m_first;
+		private int     m_last;
+		
+		public Phase(boolean copy, int first, int last) {
+			m_copy = copy;
+			m_first = first;
+			m_last = last;
+		}
+		
+		protected void compute() {
+			if(m_last - m_first == 1 || m_prefixCost[m_last] - m_prefixCost[m_first] <= m_grain) {
+				long start = System.nanoTime();
+				for(int i=m_first; i<m_last; i++) {
+					if(m_copy) {
+						copy(m_nodes[i]);
+					} else {
+						m_nodes[i].updateProcessor();
+						updateRouter(m_nodes[i]);
+					}
+				}
+				Thread thread = Thread.currentThread();
+				int index = thread instanceof Worker ? ((Worker) thread).m_thread : -1;
+				if(index != -1)
+					addBusyTime(index, System.nanoTime() - start);
+				else
+					addOtherBusyTime(System.nanoTime() - start);
+			} else {
+				int split = splitPoint(m_first, m_last);
+				invokeAll(new Phase(m_copy, m_first, split), new Phase(m_copy, split, m_last));
+			}
+		}
+	}
+	
+	public StealingEngine(Node[] nodes, int numThreads) {
+		super(nodes);
+		
+		m_numThreads = Math.max(1, Math.min(numThreads, nodes.length));
+		m_prefixCost = new long[nodes.length + 1];
+		m_samplePeriod = Config.samplePeriod();
+		initBusyTime(m_numThreads);
+		m_freeThreads = new ArrayDeque<Integer>();
+		for(int i=0; i<m_numThreads; i++)
+			m_freeThreads.addLast(i);
+		
+		m_pool = new ForkJoinPool(m_numThreads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				Worker w = new Worker(pool, acquireThread());
+				w.setDaemon(true);
+				return w;
+			}
+		}, null, false);
+		
+		// Until there is a measurement, every node costs the same
+		for(int i=0; i<nodes.length; i++)
+			m_prefixCost[i+1] = i+1;
+		m_grain = grain();
+		
+		System.out.println("Created work-stealing engine with "+m_numThreads+" threads\n");
+	}
+	
+	public void shutdown() {
+		m_pool.shutdown();
+	}
+	
+	/*
+	 * The index of the busy time of a new worker, unique among the live workers, 
+	 * or -1 for a spare
+	 */
+	private synchronized int acquireThread() {
+		return m_freeThreads.isEmpty() ? -1 : m_freeThreads.removeFirst();
+	}
+	
+	private synchronized void releaseThread(int thread) {
+		if(thread != -1)
+			m_freeThreads.addFirst(thread);
+	}
+	
+	public void step() {
+		m_pool.invoke(new Phase(false, 0, m_nodes.length));
+		m_pool.invoke(new Phase(true, 0, m_nodes.length));
+		
+		if(++m_cycles >= m_samplePeriod) {
+			measureCosts();
+			m_cycles = 0;
+		}
+	}
+	
+	/*
+	 * Set the cost of each node to the flits it moved since the last measurement, 
+	 * plus one for stepping its processor
+	 */
+	private void measureCosts() {
+		for(int i=0; i<m_nodes.length; i++)
+			m_prefixCost[i+1] = m_prefixCost[i] + 1 + m_nodes[i].takeFlitsMoved();
+		m_grain = grain();
+	}
+	
+	private long grain() {
+		return Math.max(1, m_prefixCost[m_nodes.length] / (m_numThreads * TASKS_PER_THREAD));
+	}
+	
+	/*
+	 * Find the node that splits the cost of [first, last) in half, leaving at 
+	 * least one node on each side
+	 */
+	private int splitPoint(int first, int last) {
+		long half = (m_prefixCost[first] + m_prefixCost[last]) / 2;
+		int lo = first + 1;
+		int hi = last - 1;
+		while(lo < hi) {
+			int mid = (lo + hi) / 2;
+			if(m_prefixCost[mid] < half)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+}
@@ -19,7 +19,7 @@ import org.jgrapht.ext.DOTExporter;
 import org.jgrapht.graph.DefaultDirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
 
-import sim.components.Node;
+import sim.topology.TopologyGraph;
 
 /*
  * Directed graph implementation of a spanning tree
@@ -81,34 +81,25 @@ implements DirectedGraph<RNode, REdge> {
 		return false;
 	}
 	
-	public Node[] buildTopology() {
+	public TopologyGraph buildTopology() {
 		
 		// Build an adjacency list to get port numbers
 		int[][] adjList = buildAdjList();
 		//System.out.println(dumpAdjList(adjList));
 		System.out.print("Building topology from adjacency list...");
 		
-		// Create all of the nodes
-		Node[] nodes = new Node[this.vertexSet().size()];
-		for(int node=0; node<nodes.length; node++) {
-			int outgoingLinks = this.outDegreeOf(this.getNode(node));
-			int incomingLinks = this.inDegreeOf(this.getNode(node));
-		    nodes[node] = new Node(node, incomingLinks, outgoingLinks);
-		}
-		
-		// Connect them
+		// Connect the nodes, the ports of each being numbered in adjacency order
+		TopologyGraph graph = new TopologyGraph(m_nodes.length);
 		for(int i=0; i<adjList.length; i++) {
 			for(int j=0; j<adjList[i].length; j++) {
-				Node to = nodes[adjList[i][j]];
 				int fromPort = j;
 				int toPort = getPort(adjList, adjList[i][j], i);
-				nodes[i].connectTo(to, fromPort, toPort);
+				graph.addLink(i, fromPort, adjList[i][j], toPort);
 			}
-			nodes[i].finishConnecting();
 		}
 		
 		System.out.println("done.\n");
-		return nodes;
+		return graph;
 	}
 	
 	private static int getPort(int[][] adjList, int node, int from) {
@@ -67,6 +67,21 @@ implements DirectedGraph<DNode, DEdge> {
 		return p;
 	}
 	
+	/*
+	 * Return the next node in the shortest path from a source to every node, or 
+	 * -1 for the source itself and any node there is no path to
+	 */
+	public int[] getNextNodes(int source) {
+		BellmanFordShortestPath<DNode, DEdge> sp = 
+			new BellmanFordShortestPath<DNode, DEdge>(this, m_nodes[source]);
+		int[] next = new int[m_nodes.length];
+		for(int i=0; i<m_nodes.length; i++) {
+			List<DEdge> path = i == source ? null : sp.getPathEdgeList(m_nodes[i]);
+			next[i] = path == null || path.isEmpty() ? -1 : path.get(0).getDst();
+		}
+		return next;
+	}
+	
 	/*
 	 * Return the next node in the shortest path
 	 */
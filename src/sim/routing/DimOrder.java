@@ -8,8 +8,9 @@ package sim.routing;
 
 import sim.Config;
 import sim.Simulator;
+import sim.SplitRandom;
 import sim.components.Network;
-import sim.components.Router;
+import sim.components.Node;
 import sim.topology.Mesh;
 
 public class DimOrder implements RoutingFunction {
@@ -17,11 +18,17 @@ public class DimOrder implements RoutingFunction {
 	private boolean m_mesh;
 	private int     _k;
 	private int     _n;
+	private SplitRandom m_rand;
 	
-	public DimOrder(boolean mesh) {
+	/*
+	 * Each router breaks torus ties with its own random stream, so the choice 
+	 * doesn't depend on the order that routers are updated in
+	 */
+	public DimOrder(boolean mesh, int nodeId) {
 		m_mesh = mesh;
 		_k = Config.k();
 		_n = Config.n();
+		m_rand = Simulator.routerRandom(nodeId);
 	}
 
 	public int getOutputPort(int current, int inputVC, int source, int dest) {
@@ -38,7 +45,7 @@ public class DimOrder implements RoutingFunction {
 				
 				if(m_mesh) {
 					D_i = destDimPos > currDimPos ? 1 : -1;
-					return D_i < 0 ? Mesh.getLeftPort(current, dim) : Mesh.getRightPort(current, dim);
+					return D_i < 0 ? Mesh.getLeftPort(_k, current, dim) : Mesh.getRightPort(_k, current, dim);
 				} else {
 					int m_i = (destDimPos - currDimPos) % _k;
 					int d_i = m_i - (m_i <= _k/2 ? 0 : _k);
@@ -46,7 +53,7 @@ public class DimOrder implements RoutingFunction {
 					
 					// If equal distances, then just randomly choose a direction
 					if(D_i == 0)
-						D_i = Simulator.randDouble() > 0.5 ? 1 : -1;
+						D_i = m_rand.nextDouble() > 0.5 ? 1 : -1;
 					
 					// If -1 then route left, otherwise route right
 					return D_i < 0 ? 2*dim : 2*dim+1;
@@ -62,6 +69,13 @@ public class DimOrder implements RoutingFunction {
 		return -1;
 	}
 	
+	/*
+	 * On a torus ties are broken at random
+	 */
+	public boolean isDeterministic() {
+		return m_mesh;
+	}
+	
 	private int getPosInDim(int node, int dim) {
 		int kToDim = (int) Math.pow(_k, dim);
 		int posInDim = (node / kToDim) % _k;
@@ -69,8 +83,8 @@ public class DimOrder implements RoutingFunction {
 	}
 	
 	public static void configNetwork(Network network, boolean mesh) {
-		for(Router r : network.getRouters())
-			r.setRoutingFn(new DimOrder(mesh));		
+		for(Node n : network.getLocalNodes())
+			network.setRoutingFn(n.getId(), new DimOrder(mesh, n.getId()));		
 	}
 
 	public void clear() {}
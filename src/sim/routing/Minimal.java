@@ -6,15 +6,10 @@
  */ 
 package sim.routing;
 
-import java.util.List;
-import java.util.Set;
-
-import org.jgrapht.alg.BellmanFordShortestPath;
-
 import sim.components.Network;
-import sim.components.Router;
-import sim.components.RouterLink;
+import sim.components.Node;
 import sim.graphs.Directed;
+import sim.topology.TopologyGraph;
 
 /*
  * This routing function deterministically routes along the shortest 
@@ -28,7 +23,8 @@ public class Minimal extends TableBased {
 
 	/*
 	 * For each router, calc shortest path to each other node. Write the corresponding 
-	 * output port in its routing table
+	 * output port in its routing table. The paths are found over the topology, as 
+	 * a distributed process only builds its own routers
 	 */
 	public static void configNetwork(Network network) {
 
@@ -38,24 +34,22 @@ public class Minimal extends TableBased {
 		System.out.println("blah");
 		System.exit(1);*/
 		
-		Router[] routers = network.getRouters();
+		Directed graph = network.getGraph().toDirected();
 		
-		for(int i=0; i<routers.length; i++) {
+		for(Node n : network.getLocalNodes()) {
 			
-			BellmanFordShortestPath<Router, RouterLink> sp = 
-				new BellmanFordShortestPath<Router, RouterLink>(network, routers[i]);
+			int i = n.getId();
+			int[] next = graph.getNextNodes(i);
 			Minimal min = new Minimal();
-			routers[i].setRoutingFn(min);
+			network.setRoutingFn(i, min);
 			
-			for(int j=0; j<routers.length; j++) {
+			for(int j=0; j<network.numNodes(); j++) {
 				if(i != j) {
-					List<RouterLink> path = sp.getPathEdgeList(routers[j]);
-					
-					if(path == null) {
+					if(next[j] == -1) {
 						System.err.println("Error: no path between nodes "+i+" and "+j);
 					} else {
-						int outputPort = routers[i].getOutputPort(path.get(0).getTo().getNodeId());
-						min.addTableEntry(routers[j].getNodeId(), outputPort, -1);
+						int outputPort = network.getOutputPort(i, next[j]);
+						min.addTableEntry(j, outputPort, -1);
 					}
 				}
 			}
@@ -63,16 +57,13 @@ public class Minimal extends TableBased {
 	}
 	
 	public static Directed createFullCDG(Network network) {
-		Router[] nodes = network.getRouters();
-		Directed cdg = new Directed(network.numLinks());
+		TopologyGraph graph = network.getGraph();
+		Directed cdg = new Directed(graph.numLinks());
 		
-		for(int i=0; i<nodes.length; i++) {
-			Set<RouterLink> in = nodes[i].incomingLinks();
-			Set<RouterLink> out = nodes[i].outgoingLinks();
-			
-			for(RouterLink inLink : in) {
-				for(RouterLink outLink : out) {
-					cdg.addEdge(inLink.getId(), outLink.getId());
+		for(int i=0; i<graph.numNodes(); i++) {
+			for(int inLink : graph.getInLinks(i)) {
+				for(int outLink : graph.getOutLinks(i)) {
+					cdg.addEdge(inLink, outLink);
 				}
 			}
 		}
@@ -11,4 +11,9 @@ public interface RoutingFunction {
 	public int getOutputPort(int current, int inputVC, int source, int dest);
 	public int getOutputVC(int current, int inputVC, int source, int dest);
 	
+	/*
+	 * Whether the port and VC only depend on the current node and the destination, 
+	 * and never on a random choice, so that they can be looked up in a table
+	 */
+	public boolean isDeterministic();
 }
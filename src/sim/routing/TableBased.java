@@ -27,6 +27,10 @@ public class TableBased implements RoutingFunction {
 		return m_table.getVC(dest);
 	}
 	
+	public boolean isDeterministic() {
+		return true;
+	}
+	
 	public void addTableEntry(int dest, int port, int vc) {
 		m_table.add(dest, port, vc);
 		//System.out.println("added table entry for dest "+dest+" on ["+port+":"+vc+"]");
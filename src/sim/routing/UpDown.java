@@ -10,9 +10,9 @@ import java.util.LinkedList;
 
 import sim.Simulator;
 import sim.components.Network;
-import sim.components.Router;
-import sim.components.RouterLink;
+import sim.components.Node;
 import sim.graphs.Directed;
+import sim.topology.TopologyGraph;
 
 public class UpDown extends TableBased {
 	
@@ -23,21 +23,20 @@ public class UpDown extends TableBased {
 	public static void configNetwork(Network network) {
 		Directed st = BFS(network);
 		
-		Router[] routers = network.getRouters();
-		
 		// Fill the routing tables according to shortest paths in the spanning tree
-		for(int i=0; i<routers.length; i++) {
+		for(Node n : network.getLocalNodes()) {
 			
+			int i = n.getId();
 			UpDown upDown = new UpDown();
-			routers[i].setRoutingFn(upDown);
+			network.setRoutingFn(i, upDown);
 			
-			for(int j=0; j<routers.length; j++) {
+			for(int j=0; j<network.numNodes(); j++) {
 				if(i != j) {
 					int nextNode = st.getNextNode(i, j);
 					if(nextNode == -1) {
 						System.err.println("Error: no path between nodes "+i+" and "+j);
 					} else {
-						int outputPort = routers[i].getOutputPort(nextNode);
+						int outputPort = network.getOutputPort(i, nextNode);
 						upDown.addTableEntry(j, outputPort, -1);
 					}
 				}
@@ -46,11 +45,11 @@ public class UpDown extends TableBased {
 	}
 	
 	/*
-	 * Perform a breadth first search of the graph to construct a spanning tree
+	 * Perform a breadth first search of the topology to construct a spanning tree
 	 */
 	public static Directed BFS(Network network) {
 		
-		Router[] routers = network.getRouters();
+		TopologyGraph graph = network.getGraph();
 		
 		int[] parent = new int[network.numNodes()];
 		for(int i=0; i<parent.length; i++)
@@ -66,8 +65,8 @@ public class UpDown extends TableBased {
 			int current = next.poll();
 
 		    // Look through neighbors, if unvisited add it to the queue
-		    for(RouterLink outLink : network.outgoingEdgesOf(routers[current])) {
-		    	int neighbour = outLink.getTo().getNodeId();
+		    for(int outLink : graph.getOutLinks(current)) {
+		    	int neighbour = graph.getTo(outLink);
 		    	//System.out.println(current+" -> "+neighbour);
 		        
 		    	if (parent[neighbour] == -1) {
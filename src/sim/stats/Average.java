@@ -6,6 +6,10 @@
  */ 
 package sim.stats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 public class Average {
 
 	int    m_numSamples;
@@ -59,6 +63,46 @@ public class Average {
 			m_min = value;
 	}
 	
+	/*
+	 * Add the same value for a number of samples
+	 */
+	public void addSamples(double value, int count) {
+		if(count <= 0)
+			return;
+		m_numSamples += count;
+		m_sum += value * count;
+		if(value > m_max)
+			m_max = value;
+		if(value < m_min)
+			m_min = value;
+	}
+	
+	/*
+	 * Add the samples of another average
+	 */
+	public void merge(Average a) {
+		m_numSamples += a.m_numSamples;
+		m_sum += a.m_sum;
+		m_min = Math.min(m_min, a.m_min);
+		m_max = Math.max(m_max, a.m_max);
+	}
+	
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(m_numSamples);
+		out.writeDouble(m_sum);
+		out.writeDouble(m_min);
+		out.writeDouble(m_max);
+	}
+	
+	public static Average read(DataInputStream in) throws IOException {
+		Average a = new Average();
+		a.m_numSamples = in.readInt();
+		a.m_sum = in.readDouble();
+		a.m_min = in.readDouble();
+		a.m_max = in.readDouble();
+		return a;
+	}
+	
 	public void clear() {
 		m_numSamples = 0;
 		m_sum = 0.0;
@@ -6,69 +6,153 @@
  */ 
 package sim.stats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.LinkedList;
 
 import sim.Config;
+import sim.SimulationContext;
 import sim.Simulator;
-import sim.components.Flit;
+import sim.components.FlitArena;
+import sim.components.Node;
 
 /*
  * Latency values are recorded in the sample they were generated in
  * Accepted packets and hops are recorded in the sample they arrive
+ * 
+ * Each processor records its packets and flits in a recorder of its own, so the 
+ * processors updated by the threads of an engine never share any statistics. The 
+ * latencies and hops of the recorders are merged here at the end of each sample 
+ * period, in node order, and the packet counts are summed when they are first read 
+ * in a cycle.
  */
 public class Stats {
+	
+	/*
+	 * The statistics recorded by one processor
+	 */
+	public static class Recorder {
+		private FlitArena m_arena    = FlitArena.current();
+		private Simulator m_sim      = SimulationContext.current().simulator();
+		private Average   m_latency  = new Average();
+		private Average   m_hops     = new Average();
+		private Average   m_accepted = new Average();
+		private int       m_genPackets;
+		private int       m_recPackets;
+		private int       m_dropPackets;
+		
+		public void newPacket()    { m_genPackets++; }
+		public void retirePacket() { m_recPackets++; }
+		
+		/*
+		 * A packet that was not generated as its source queue was full
+		 */
+		public void dropPacket()   { m_dropPackets++; }
+		
+		/*
+		 * Calculate throughput on a flit level. If flit==NONE it is spare capacity
+		 */
+		public void retireFlit(int flit) {
+			if(flit != FlitArena.NONE && m_arena.isMmt(flit)) {
+				m_latency.addSample(m_arena.getLatency(flit));
+				m_hops.addSample(m_arena.getHops(flit));
+			}
+			if(!m_sim.isDraining())
+				m_accepted.addSample(flit != FlitArena.NONE ? 1 : 0);
+		}
+		
+		private void clearPackets() {
+			m_genPackets = 0;
+			m_recPackets = 0;
+			m_dropPackets = 0;
+		}
+	}
 
+	// The recorders of the processors of this process
+	private Recorder[]          m_recorders;
+	
 	// Average for each sample
-	private static Average             m_hops;
-	private static Average             m_latency;
-	private static Average[]           m_accepted;
+	private Average             m_hops;
+	private Average             m_latency;
+	
+	// Hops and latencies recorded by other processes in this sample period
+	private Average             m_remoteHops;
+	private Average             m_remoteLatency;
+	private Average[]           m_accepted;
 	
 	// Record batch averages to calc stdDev and error
-	private static LinkedList<Average> m_batchLatency;
-	private static LinkedList<Average> m_batchAccepted;
+	private LinkedList<Average> m_batchLatency;
+	private LinkedList<Average> m_batchAccepted;
 	
 	// Average for each simulation run
-	private static LinkedList<Average> m_overallLatency;
-	private static LinkedList<Average> m_overallHops;
-	private static LinkedList<Average> m_overallAccepted;
-	private static LinkedList<Average> m_overallAcceptedMin;
+	private LinkedList<Average> m_overallLatency;
+	private LinkedList<Average> m_overallHops;
+	private LinkedList<Average> m_overallAccepted;
+	private LinkedList<Average> m_overallAcceptedMin;
 	
 	// Hold variables
-	private static double    m_prevAccepted;
-	private static double    m_currAccepted;
-	private static double    m_currLatency;
-	private static double    m_changeLatency;
-	private static double    m_prevLatency;
-	private static double    m_currAcceptedMin;
-	private static double    m_changeAccepted;
+	private double    m_prevAccepted;
+	private double    m_currAccepted;
+	private double    m_currLatency;
+	private double    m_changeLatency;
+	private double    m_prevLatency;
+	private double    m_currAcceptedMin;
+	private double    m_changeAccepted;
+	
+	private double    m_stdDevLatency;
+	private double    m_stdDevAccepted;
+	
+	// Packets generated, received and dropped by other processes
+	private int       m_remoteGenPackets;
+	private int       m_remoteRecPackets;
+	private int       m_remoteDropPackets;
 	
-	private static double    m_stdDevLatency;
-	private static double    m_stdDevAccepted;
+	// Packets generated, received and dropped here when they were last taken
+	private int       m_takenGenPackets;
+	private int       m_takenRecPackets;
+	private int       m_takenDropPackets;
 	
-	private static int       m_totalGenPackets;
-	private static int       m_totalRecPackets;
+	// Packets generated, received and dropped here, as summed in the cycle they 
+	// were last counted in
+	private int       m_genPackets;
+	private int       m_recPackets;
+	private int       m_dropPackets;
+	private long      m_countedCycle;
 	
-	private Stats() {}
+	public Stats() {}
 	
 	public static void init() {
+		Stats stats = current();
 
-		m_latency = new Average();
-		m_hops = new Average();
-		m_accepted = new Average[Simulator.numNodes()];
+		stats.m_latency = new Average();
+		stats.m_hops = new Average();
+		stats.m_remoteLatency = new Average();
+		stats.m_remoteHops = new Average();
+		stats.m_accepted = new Average[Simulator.numNodes()];
 		
-		for(int i=0; i<m_accepted.length; i++)
-			m_accepted[i] = new Average();
+		// The nodes of other processes have no recorder here
+		Node[] nodes = Simulator.getNetwork().getLocalNodes();
+		stats.m_recorders = new Recorder[nodes.length];
+		for(int i=0; i<nodes.length; i++) {
+			stats.m_recorders[i] = nodes[i].getStatsRecorder();
+			stats.m_accepted[nodes[i].getId()] = stats.m_recorders[i].m_accepted;
+		}
+		for(int i=0; i<stats.m_accepted.length; i++)
+			if(stats.m_accepted[i] == null)
+				stats.m_accepted[i] = new Average();
 		
-		m_batchLatency       = new LinkedList<Average>();
-		m_batchAccepted      = new LinkedList<Average>();
+		stats.m_batchLatency       = new LinkedList<Average>();
+		stats.m_batchAccepted      = new LinkedList<Average>();
 		
-		m_overallLatency     = new LinkedList<Average>();
-		m_overallHops        = new LinkedList<Average>();
-		m_overallAccepted    = new LinkedList<Average>();
-		m_overallAcceptedMin = new LinkedList<Average>();
+		stats.m_overallLatency     = new LinkedList<Average>();
+		stats.m_overallHops        = new LinkedList<Average>();
+		stats.m_overallAccepted    = new LinkedList<Average>();
+		stats.m_overallAcceptedMin = new LinkedList<Average>();
 		
-		m_currLatency = 0;
-		m_currAccepted = 0;
+		stats.m_currLatency = 0;
+		stats.m_currAccepted = 0;
+		stats.m_countedCycle = -1;
 	}
 	
 	/*
@@ -76,17 +160,19 @@ public class Stats {
 	 * and return latency and throughput results
 	 */
 	public static void endExperiment() {
+		Stats stats = current();
 		
-		m_latency.clear();
+		stats.m_latency.clear();
+		stats.m_remoteLatency.clear();
 		
-		for(int i=0; i<m_accepted.length; i++)
-			m_accepted[i].clear();
+		for(int i=0; i<stats.m_accepted.length; i++)
+			stats.m_accepted[i].clear();
 		
 		for(int i=0; i<Config.simRuns(); i++) {
-			m_overallLatency.clear();
-			m_overallHops.clear();
-			m_overallAccepted.clear();
-			m_overallAcceptedMin.clear();
+			stats.m_overallLatency.clear();
+			stats.m_overallHops.clear();
+			stats.m_overallAccepted.clear();
+			stats.m_overallAcceptedMin.clear();
 		}
 	}
 	
@@ -94,17 +180,29 @@ public class Stats {
 	 * Reset fields for a new simulation run
 	 */
 	public static void newSimRun(int runNum, double x) {
-		m_totalGenPackets = 0;
-		m_totalRecPackets = 0;
-		m_latency.clear();
+		Stats stats = current();
+		stats.m_remoteGenPackets = 0;
+		stats.m_remoteRecPackets = 0;
+		stats.m_remoteDropPackets = 0;
+		stats.m_takenGenPackets = 0;
+		stats.m_takenRecPackets = 0;
+		stats.m_takenDropPackets = 0;
+		for(Recorder r : stats.m_recorders) {
+			r.clearPackets();
+			r.m_latency.clear();
+		}
+		stats.m_countedCycle = -1;
+		stats.m_latency.clear();
+		stats.m_remoteLatency.clear();
 		
-		m_overallLatency.add(new Average(x));
-		m_overallHops.add(new Average(x));
-		m_overallAccepted.add(new Average(x));
-		m_overallAcceptedMin.add(new Average(x));
+		stats.m_overallLatency.add(new Average(x));
+		stats.m_overallHops.add(new Average(x));
+		stats.m_overallAccepted.add(new Average(x));
+		stats.m_overallAcceptedMin.add(new Average(x));
 	}
 	
 	public static void endSimRun() {
+		Stats stats = current();
 		
 		// confidence = 95%, 100 samples/batches
 		// 1.984217
@@ -112,120 +210,255 @@ public class Stats {
 		
 		// Calculate latency std dev
 		double sum = 0;
-		double batchMean = m_overallLatency.getLast().average();
-		for(Average b : m_batchLatency) {
+		double batchMean = stats.m_overallLatency.getLast().average();
+		for(Average b : stats.m_batchLatency) {
 			sum += Math.pow(batchMean - b.average(), 2);
 		}
-		m_stdDevLatency = 1.0 / (double)(Config.numSamples()-1) * sum;
-		double error = (Math.sqrt(m_stdDevLatency) * t) / Math.sqrt(Config.numSamples()); 
-		m_overallLatency.getLast().setError(error);
+		stats.m_stdDevLatency = 1.0 / (double)(Config.numSamples()-1) * sum;
+		double error = (Math.sqrt(stats.m_stdDevLatency) * t) / Math.sqrt(Config.numSamples()); 
+		stats.m_overallLatency.getLast().setError(error);
 		
 		// Calculate throughput std dev
 		sum = 0;
-		batchMean = m_overallAccepted.getLast().average();
-		for(Average b : m_batchAccepted) {
+		batchMean = stats.m_overallAccepted.getLast().average();
+		for(Average b : stats.m_batchAccepted) {
 			sum += Math.pow(batchMean - b.average(), 2);
 		}
-		m_stdDevAccepted = 1.0 / (double)(Config.numSamples()-1) * sum;
-		error = (Math.sqrt(m_stdDevAccepted) * t) / Math.sqrt(Config.numSamples()); 
-		m_overallAccepted.getLast().setError(error);
+		stats.m_stdDevAccepted = 1.0 / (double)(Config.numSamples()-1) * sum;
+		error = (Math.sqrt(stats.m_stdDevAccepted) * t) / Math.sqrt(Config.numSamples()); 
+		stats.m_overallAccepted.getLast().setError(error);
 	}
 	
 	/*
 	 * Clear the batches
 	 */
-	public static void newSamplePhase() {		
-		m_hops.clear();
-		m_latency.clear();
-		for(int i=0; i<m_accepted.length; i++)
-			m_accepted[i].clear();
+	public static void newSamplePhase() {
+		Stats stats = current();
+		stats.m_hops.clear();
+		stats.m_remoteHops.clear();
+		stats.m_latency.clear();
+		stats.m_remoteLatency.clear();
+		for(Recorder r : stats.m_recorders) {
+			r.m_latency.clear();
+			r.m_hops.clear();
+		}
+		for(int i=0; i<stats.m_accepted.length; i++)
+			stats.m_accepted[i].clear();
+	}
+	
+	/*
+	 * Merge the latencies and hops recorded by the processors in this sample 
+	 * period, once they are no longer being stepped. Latencies and hops are whole 
+	 * numbers, so their sums are the same as if they had been recorded together
+	 */
+	public static void mergeRecorders() {
+		Stats stats = current();
+		for(Recorder r : stats.m_recorders) {
+			stats.m_latency.merge(r.m_latency);
+			stats.m_hops.merge(r.m_hops);
+			r.m_latency.clear();
+			r.m_hops.clear();
+		}
 	}
 	
 	public static void calcSampleValues() {
-		m_prevLatency = m_currLatency;
-		m_currLatency = m_latency.average();
-		m_changeLatency = m_currLatency==0 ? 0 : 
-			Math.abs((m_currLatency - m_prevLatency)/m_currLatency);
+		Stats stats = current();
+		stats.m_prevLatency = stats.m_currLatency;
+		stats.m_currLatency = average(stats.m_latency, stats.m_remoteLatency);
+		stats.m_changeLatency = stats.m_currLatency==0 ? 0 : 
+			Math.abs((stats.m_currLatency - stats.m_prevLatency)/stats.m_currLatency);
 		
-		m_prevAccepted = m_currAccepted;
-		m_currAccepted = calcAccepted();
-		m_currAcceptedMin = calcAcceptedMin();
-		m_changeAccepted = m_currAccepted==0 ? 0 : 
-			Math.abs((double)(m_currAccepted-m_prevAccepted)/(double)m_currAccepted);
+		stats.m_prevAccepted = stats.m_currAccepted;
+		stats.m_currAccepted = calcAccepted();
+		stats.m_currAcceptedMin = calcAcceptedMin();
+		stats.m_changeAccepted = stats.m_currAccepted==0 ? 0 : 
+			Math.abs((double)(stats.m_currAccepted-stats.m_prevAccepted)/(double)stats.m_currAccepted);
 	}
 	
 	/*
 	 * Add batch sample mean to sim run avg and record the previous batch means (for stddev)
 	 */
 	public static void addSample() {
-		m_overallLatency.getLast().addSample(m_currLatency);
-		m_overallHops.getLast().addSample(m_hops.average());
-		m_overallAccepted.getLast().addSample(m_currAccepted);
-		m_overallAcceptedMin.getLast().addSample(m_currAcceptedMin);
+		Stats stats = current();
+		stats.m_overallLatency.getLast().addSample(stats.m_currLatency);
+		stats.m_overallHops.getLast().addSample(average(stats.m_hops, stats.m_remoteHops));
+		stats.m_overallAccepted.getLast().addSample(stats.m_currAccepted);
+		stats.m_overallAcceptedMin.getLast().addSample(stats.m_currAcceptedMin);
 		
-		m_batchLatency.add(new Average(m_currLatency));
-		m_batchAccepted.add(new Average(m_currAccepted));
+		stats.m_batchLatency.add(new Average(stats.m_currLatency));
+		stats.m_batchAccepted.add(new Average(stats.m_currAccepted));
 	}
 	
 	/*
-	 * Called when a packet is retired, or when a packet could have been retired (flit==null)
+	 * Account for cycles that were skipped while the network was empty, in which 
+	 * every node would have recorded spare capacity
 	 */
-	public static void retirePacket(int nodeId, Flit flit) {
-		m_totalRecPackets++;
-		//if(Simulator.getState().equals(SimState.DRAINING)) {
-			//System.out.println("Retired a packet");
-		//}
+	public static void skipCycles(int cycles) {
+		Stats stats = current();
+		if(!Simulator.draining()) {
+			for(int i=0; i<stats.m_accepted.length; i++)
+				stats.m_accepted[i].addSamples(0, cycles);
+		}
 	}
 	
 	/*
-	 * Calculate throughput on a flit level. If flit==null it is spare capacity
+	 * Return the packets generated, received and dropped since the last call, so 
+	 * that they can be added to the counts of other processes
 	 */
-	public static void retireFlit(int nodeId, Flit flit) {
-		if(flit != null && flit.isMmt()) {
-			m_latency.addSample(flit.getLatency());
-			m_hops.addSample(flit.getHops());
+	public static int[] takeNewPackets() {
+		Stats stats = current();
+		int generated = 0, received = 0, dropped = 0;
+		for(Recorder r : stats.m_recorders) {
+			generated += r.m_genPackets;
+			received += r.m_recPackets;
+			dropped += r.m_dropPackets;
 		}
-		if(!Simulator.draining()) {
-			m_accepted[nodeId].addSample(flit != null ? 1 : 0);
+		int[] packets = { generated - stats.m_takenGenPackets, received - stats.m_takenRecPackets, 
+				dropped - stats.m_takenDropPackets };
+		stats.m_takenGenPackets = generated;
+		stats.m_takenRecPackets = received;
+		stats.m_takenDropPackets = dropped;
+		return packets;
+	}
+	
+	public static void addPackets(int generated, int received, int dropped) {
+		Stats stats = current();
+		stats.m_remoteGenPackets += generated;
+		stats.m_remoteRecPackets += received;
+		stats.m_remoteDropPackets += dropped;
+	}
+	
+	/*
+	 * Write the samples of this sample period recorded by a set of nodes, so they 
+	 * can be merged with the samples of the other nodes by another process
+	 */
+	public static void writeSample(DataOutputStream out, int[] nodes) throws IOException {
+		Stats stats = current();
+		stats.m_latency.write(out);
+		stats.m_hops.write(out);
+		out.writeInt(nodes.length);
+		for(int node : nodes) {
+			out.writeInt(node);
+			stats.m_accepted[node].write(out);
 		}
 	}
 	
+	/*
+	 * Merge the samples written by another process, after clearing those merged 
+	 * before as each process writes all of its samples so far. Latencies and hops 
+	 * are whole numbers, so their sums are exact in whatever order they are merged
+	 */
+	public static void clearRemoteSamples() {
+		Stats stats = current();
+		stats.m_remoteLatency.clear();
+		stats.m_remoteHops.clear();
+	}
+	
+	public static void mergeSample(DataInputStream in) throws IOException {
+		Stats stats = current();
+		stats.m_remoteLatency.merge(Average.read(in));
+		stats.m_remoteHops.merge(Average.read(in));
+		int numNodes = in.readInt();
+		for(int i=0; i<numNodes; i++) {
+			int node = in.readInt();
+			stats.m_accepted[node] = Average.read(in);
+		}
+	}
+	
+	private static double average(Average local, Average remote) {
+		int numSamples = local.numSamples() + remote.numSamples();
+		return numSamples == 0 ? 0.0 : (local.sum() + remote.sum()) / (double) numSamples;
+	}
+	
 	private static double calcAccepted() {
+		Stats stats = current();
 		double average = 0;
-		for(int i=0; i<m_accepted.length; i++)
-			average += m_accepted[i].average();
-		return average / (double)m_accepted.length;
+		for(int i=0; i<stats.m_accepted.length; i++)
+			average += stats.m_accepted[i].average();
+		return average / (double)stats.m_accepted.length;
 	}
 
 	private static double calcAcceptedMin() {
+		Stats stats = current();
 		double min = Double.MAX_VALUE;
-		for(int i=0; i<m_accepted.length; i++) {
-			if(m_accepted[i].average() < min) {
-				min = m_accepted[i].average();
+		for(int i=0; i<stats.m_accepted.length; i++) {
+			if(stats.m_accepted[i].average() < min) {
+				min = stats.m_accepted[i].average();
 			}
 		}
 		return min;
 	}
 	
 	public static String dumpInfo() {
+		Stats stats = current();
 		return
 			"[STATS]============================================\n"+
-			"Packets generated    "+m_totalGenPackets+"\n"+
-			"Packets received     "+m_totalRecPackets+"\n"+
-			"Overall latency      "+m_overallLatency.getLast().average()+"\n"+
-			"Overall hops         "+String.format("%.2f", m_overallHops.getLast().average())+"\n"+
-			"Overall accepted     "+String.format("%f", m_overallAccepted.getLast().average())+"\n"+
-			"Overall min accepted "+String.format("%.2f", m_overallAcceptedMin.getLast().average())+"\n"+
-			"Latency std dev      "+m_stdDevLatency+"\n"+
-			"Acceped std dev      "+m_stdDevAccepted+"\n"+
+			"Packets generated    "+packetsGenerated()+"\n"+
+			"Packets received     "+packetsReceived()+"\n"+
+			"Packets dropped      "+packetsDropped()+"\n"+
+			"Overall latency      "+stats.m_overallLatency.getLast().average()+"\n"+
+			"Overall hops         "+String.format("%.2f", stats.m_overallHops.getLast().average())+"\n"+
+			"Overall accepted     "+String.format("%f", stats.m_overallAccepted.getLast().average())+"\n"+
+			"Overall min accepted "+String.format("%.2f", stats.m_overallAcceptedMin.getLast().average())+"\n"+
+			"Latency std dev      "+stats.m_stdDevLatency+"\n"+
+			"Acceped std dev      "+stats.m_stdDevAccepted+"\n"+
 			"---------------------------------------------------";
 	}
 
-	public static int     packetsGenerated()  { return m_totalGenPackets; }
-	public static int     packetsReceived()   { return m_totalRecPackets; }
-	public static double  throughputChange()  { return m_changeAccepted; }
-	public static double  latencyChange()     { return m_changeLatency; }
-	public static double  currLatency()       { return m_currLatency; }
-	public static double  currThroughput()    { return m_currAccepted; }
-	public static void    newPacket()         { m_totalGenPackets++; }
+	/*
+	 * The packets generated, received and dropped so far in this run, by every 
+	 * process, up to the start of the current cycle
+	 */
+	public static int packetsGenerated() {
+		Stats stats = countPackets();
+		return stats.m_remoteGenPackets + stats.m_genPackets;
+	}
+	
+	public static int packetsReceived() {
+		Stats stats = countPackets();
+		return stats.m_remoteRecPackets + stats.m_recPackets;
+	}
+	
+	public static int packetsDropped() {
+		Stats stats = countPackets();
+		return stats.m_remoteDropPackets + stats.m_dropPackets;
+	}
+	
+	/*
+	 * Have the packet counts summed again when they are next read, as the clock 
+	 * has been set back
+	 */
+	public static void recountPackets() {
+		current().m_countedCycle = -1;
+	}
+	
+	/*
+	 * Sum the packet counts of the recorders, unless they have been summed in this 
+	 * cycle already. The counts are read every cycle by fast-forwarding and draining, 
+	 * and by every processor in debug mode, so they are only summed once a cycle
+	 */
+	private static Stats countPackets() {
+		Stats stats = current();
+		long now = Simulator.clock();
+		if(stats.m_countedCycle != now) {
+			int generated = 0, received = 0, dropped = 0;
+			for(Recorder r : stats.m_recorders) {
+				generated += r.m_genPackets;
+				received += r.m_recPackets;
+				dropped += r.m_dropPackets;
+			}
+			stats.m_genPackets = generated;
+			stats.m_recPackets = received;
+			stats.m_dropPackets = dropped;
+			stats.m_countedCycle = now;
+		}
+		return stats;
+	}
+	
+	public static double  throughputChange()  { return current().m_changeAccepted; }
+	public static double  latencyChange()     { return current().m_changeLatency; }
+	public static double  currLatency()       { return current().m_currLatency; }
+	public static double  currThroughput()    { return current().m_currAccepted; }
+	
+	private static Stats current() { return SimulationContext.current().stats(); }
 }
@@ -13,8 +13,13 @@ import sim.graphs.Construction;
 
 public class DegenMesh {
 
-	private static int _k;
-	private static int _n;
+	private int _k;
+	private int _n;
+	
+	private DegenMesh(int k, int n) {
+		_k = k;
+		_n = n;
+	}
 	
 	/*
 	 * For each node and each dimension, make the left and right connections,
@@ -23,16 +28,17 @@ public class DegenMesh {
 	 * Dimension i: (L) <-- (N) --> (R)
 	 */
 	public static Construction create(int k, int n, double faults) {
-
-		_k = k;
-		_n = n;
+		return new DegenMesh(k, n).build(faults);
+	}
+	
+	private Construction build(double faults) {
 		
 		int numNodes = (int) Math.pow(_k, _n);
 		Construction graph = new Construction(numNodes);
  
         for(int node=0; node<numNodes; node++) {
 			
-			for(int dim = 0; dim < n; dim++) {
+			for(int dim = 0; dim < _n; dim++) {
 
 				//System.out.println("Dimension "+dim);
 				
@@ -70,7 +76,7 @@ public class DegenMesh {
 		return graph;
 	}
 
-	private static int getLeftNode(int node, int dim) {
+	private int getLeftNode(int node, int dim) {
 
 	  int kToDim = (int) Math.pow(_k, dim);
 	  int posInDim = (node / kToDim) % _k;
@@ -79,7 +85,7 @@ public class DegenMesh {
 	  return posInDim == 0 ? -1 : (node - kToDim);
 	}
 
-	private static int getRightNode(int node, int dim) {
+	private int getRightNode(int node, int dim) {
 
 	  int kToDim = (int) Math.pow(_k, dim);
 	  int posInDim = (node / kToDim) % _k;
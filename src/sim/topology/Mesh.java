@@ -6,12 +6,15 @@
  */ 
 package sim.topology;
 
-import sim.components.Node;
-
 public class Mesh {
 
-	private static int _k;
-	private static int _n;
+	private int _k;
+	private int _n;
+	
+	private Mesh(int k, int n) {
+		_k = k;
+		_n = n;
+	}
 	
 	/*
 	 * For each node and each dimension, make the left and right connections,
@@ -19,24 +22,19 @@ public class Mesh {
 	 * 
 	 * Dimension i: (L) <-- (N) --> (R)
 	 */
-	public static Node[] create(int k, int n) {
-
-		_k = k;
-		_n = n;
+	public static TopologyGraph create(int k, int n) {
+		return new Mesh(k, n).build();
+	}
+	
+	private TopologyGraph build() {
 		
 		int numNodes = (int) Math.pow(_k, _n);
-		Node[] nodes = new Node[numNodes];
+		TopologyGraph graph = new TopologyGraph(numNodes);
 		
-		// Create all the nodes
+		// Connect the nodes
 		for(int node=0; node<numNodes; node++) {
-			int connections = getNumConns(node);
-		    nodes[node] = new Node(node, connections, connections);
-		}
-		
-		// Connect them
-		for(int node=0; node<nodes.length; node++) {
 			
-			for(int dim = 0; dim < n; dim++) {
+			for(int dim = 0; dim < _n; dim++) {
 
 				//System.out.println("Dimension "+dim);
 				
@@ -44,43 +42,41 @@ public class Mesh {
 			    int rightNode = getRightNode(node, dim);
 			  
 			    if(leftNode != -1) {
-			    	int leftPort = getLeftPort(node, dim);
-			  	    int leftNodeRightPort = getRightPort(leftNode, dim);
+			    	int leftPort = getLeftPort(_k, node, dim);
+			  	    int leftNodeRightPort = getRightPort(_k, leftNode, dim);
 				    //System.out.println("Connecting node "+node+"["+leftPort+"] to leftNode "+leftNode+"["+leftNodeRightPort+"]");
-				    nodes[node].connectTo(nodes[leftNode], leftPort, leftNodeRightPort);
+				    graph.addLink(node, leftPort, leftNode, leftNodeRightPort);
 			    }
 			
 			    if(rightNode != -1) {
-			    	int rightPort = getRightPort(node, dim);
-				    int rightNodeLeftPort = getLeftPort(rightNode, dim);
+			    	int rightPort = getRightPort(_k, node, dim);
+				    int rightNodeLeftPort = getLeftPort(_k, rightNode, dim);
 				    //System.out.println("Connecting node "+node+"["+rightPort+"] to rightNode "+rightNode+"["+rightNodeLeftPort+"]");
-				    nodes[node].connectTo(nodes[rightNode], rightPort, rightNodeLeftPort);
+				    graph.addLink(node, rightPort, rightNode, rightNodeLeftPort);
 			    }
 		    }
-
-		    nodes[node].finishConnecting();
 		}
 	
-		return nodes;
+		return graph;
 	}
 
 	/*
 	 * Return the number of the base (i.e. left) port in dimension dim
 	 */
-	public static int getLeftPort(int node, int dim) {
+	public static int getLeftPort(int k, int node, int dim) {
 		
 		int port = -1;
 		
 		//System.out.print("get left port of node "+node+": ");
 		for(int d = 0; d <= dim; d++) {
-			int kToD = (int) Math.pow(_k, d);
-			int posInDim = (node / kToD) % _k;
+			int kToD = (int) Math.pow(k, d);
+			int posInDim = (node / kToD) % k;
 			
 			//System.out.print("D"+d+" pos="+posInDim);
 			// For each available direction in a dimension, add a port
 			if(posInDim > 0)
 				port++;
-			if(posInDim < _k-1 && d < dim)
+			if(posInDim < k-1 && d < dim)
 				port++;
 		}
 		
@@ -88,20 +84,20 @@ public class Mesh {
 		return port;
 	}
 	
-	public static int getRightPort(int node, int dim) {
+	public static int getRightPort(int k, int node, int dim) {
 		
 		int port = -1;
 		
 		//System.out.print("get right port of node "+node+": ");
 		for(int d = 0; d <= dim; d++) {
-			int kToD = (int) Math.pow(_k, d);
-			int posInDim = (node / kToD) % _k;
+			int kToD = (int) Math.pow(k, d);
+			int posInDim = (node / kToD) % k;
 			
 			//System.out.print("D"+d+" pos="+posInDim);
 			// For each available direction in a dimension, add a port
 			if(posInDim > 0)
 				port++;
-			if(posInDim < _k-1)
+			if(posInDim < k-1)
 				port++;
 		}
 		
@@ -112,7 +108,7 @@ public class Mesh {
 	/*
 	 * Return the number of connections (input and output) to a node
 	 */
-	private static int getNumConns(int node) {
+	private int getNumConns(int node) {
 		
 		int connections = 2*_n;
 		
@@ -128,7 +124,7 @@ public class Mesh {
 		return connections;
 	}
 	
-	private static int getLeftNode(int node, int dim) {
+	private int getLeftNode(int node, int dim) {
 
 	  int kToDim = (int) Math.pow(_k, dim);
 	  int posInDim = (node / kToDim) % _k;
@@ -137,7 +133,7 @@ public class Mesh {
 	  return posInDim == 0 ? -1 : (node - kToDim);
 	}
 
-	private static int getRightNode(int node, int dim) {
+	private int getRightNode(int node, int dim) {
 
 	  int kToDim = (int) Math.pow(_k, dim);
 	  int posInDim = (node / kToDim) % _k;
@@ -7,11 +7,10 @@
 package sim.topology;
 
 import sim.Config;
-import sim.components.Node;
 
 public class Topology {
 
-	public static Node[] createTopology() {
+	public static TopologyGraph createTopology() {
 		
 		switch(Config.topology()) {
 		
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.topology;
+
+import java.util.Arrays;
+
+import sim.graphs.Directed;
+
+/*
+ * The links of a topology, held as the node and port at each end of each link in
+ * primitive arrays, without any of the routers, ports or buffers of the network.
+ * A link is numbered in the order it is added, which is the order the network
+ * creates them in, so every process numbers the links of a network the same.
+ * Routing and partitioning are computed over the graph, so a process of a
+ * distributed engine only has to build the nodes of its own part.
+ */
+public class TopologyGraph {
+
+	private int   m_numNodes;
+	private int   m_numLinks;
+	private int[] m_from;
+	private int[] m_fromPort;
+	private int[] m_to;
+	private int[] m_toPort;
+
+	// The links out of and in to each node in port order, built once every link
+	// has been added
+	private int[][] m_outLinks;
+	private int[][] m_inLinks;
+
+	public TopologyGraph(int numNodes) {
+		m_numNodes = numNodes;
+		m_numLinks = 0;
+		m_from     = new int[16];
+		m_fromPort = new int[16];
+		m_to       = new int[16];
+		m_toPort   = new int[16];
+	}
+
+	/*
+	 * Add a link from the output port of one node to the input port of another,
+	 * returning its number
+	 */
+	public int addLink(int from, int fromPort, int to, int toPort) {
+		if(m_numLinks == m_from.length) {
+			m_from     = Arrays.copyOf(m_from, m_numLinks * 2);
+			m_fromPort = Arrays.copyOf(m_fromPort, m_numLinks * 2);
+			m_to       = Arrays.copyOf(m_to, m_numLinks * 2);
+			m_toPort   = Arrays.copyOf(m_toPort, m_numLinks * 2);
+		}
+		m_from[m_numLinks]     = from;
+		m_fromPort[m_numLinks] = fromPort;
+		m_to[m_numLinks]       = to;
+		m_toPort[m_numLinks]   = toPort;
+		m_outLinks = m_inLinks = null;
+		return m_numLinks++;
+	}
+
+	private void index() {
+		if(m_outLinks != null)
+			return;
+		int[] outDegree = new int[m_numNodes];
+		int[] inDegree = new int[m_numNodes];
+		for(int l=0; l<m_numLinks; l++) {
+			outDegree[m_from[l]]++;
+			inDegree[m_to[l]]++;
+		}
+		m_outLinks = new int[m_numNodes][];
+		m_inLinks = new int[m_numNodes][];
+		for(int n=0; n<m_numNodes; n++) {
+			m_outLinks[n] = new int[outDegree[n]];
+			m_inLinks[n] = new int[inDegree[n]];
+		}
+		for(int l=0; l<m_numLinks; l++) {
+			m_outLinks[m_from[l]][m_fromPort[l]] = l;
+			m_inLinks[m_to[l]][m_toPort[l]] = l;
+		}
+	}
+
+	/*
+	 * A graph of the nodes with an edge for each link, added in the order of the
+	 * links so the edges out of each node are in port order
+	 */
+	public Directed toDirected() {
+		Directed graph = new Directed(m_numNodes);
+		for(int l=0; l<m_numLinks; l++)
+			graph.addEdge(m_from[l], m_to[l]);
+		return graph;
+	}
+
+	public int   numNodes()             { return m_numNodes; }
+	public int   numLinks()             { return m_numLinks; }
+	public int   getFrom(int link)      { return m_from[link]; }
+	public int   getFromPort(int link)  { return m_fromPort[link]; }
+	public int   getTo(int link)        { return m_to[link]; }
+	public int   getToPort(int link)    { return m_toPort[link]; }
+	public int[] getOutLinks(int node)  { index(); return m_outLinks[node]; }
+	public int[] getInLinks(int node)   { index(); return m_inLinks[node]; }
+	public int   outDegree(int node)    { return getOutLinks(node).length; }
+	public int   inDegree(int node)     { return getInLinks(node).length; }
+}
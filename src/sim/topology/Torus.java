@@ -6,34 +6,33 @@
  */ 
 package sim.topology;
 
-import sim.components.Node;
-
 public class Torus {
 
-	private static int _k;
-	private static int _n;
+	private int _k;
+	private int _n;
+	
 	
-	private Torus() {}
+	private Torus(int k, int n) {
+		_k = k;
+		_n = n;
+	}
 	
 	/*
 	 * For each node and each dimension, make the left and right connections
 	 * 
 	 * dimension i: (L) <-- (N) --> (R)
 	 */
-	public static Node[] create(int k, int n) {
-
-		_k = k;
-		_n = n;
-		
-		int numNodes = (int) Math.pow(_k, n);
-		Node[] nodes = new Node[numNodes];
+	public static TopologyGraph create(int k, int n) {
+		return new Torus(k, n).build();
+	}
+	
+	private TopologyGraph build() {
 		
-		// Create all the nodes
-		for(int node=0; node<numNodes; node++)
-		    nodes[node] = new Node(node, 2*_n, 2*_n);
+		int numNodes = (int) Math.pow(_k, _n);
+		TopologyGraph graph = new TopologyGraph(numNodes);
 		
-		// Connect them
-		for(int node=0; node<nodes.length; node++) {
+		// Connect the nodes
+		for(int node=0; node<numNodes; node++) {
 			
 			for(int dim = 0; dim < _n; dim++) {
 
@@ -43,16 +42,14 @@ public class Torus {
 		      int leftPort = 2*dim;
 		      int rightPort  = 2*dim+1;
 		      
-		      nodes[node].connectTo(nodes[leftNode], leftPort, rightPort);
-		      nodes[node].connectTo(nodes[rightNode], rightPort, leftPort);
+		      graph.addLink(node, leftPort, leftNode, rightPort);
+		      graph.addLink(node, rightPort, rightNode, leftPort);
 		    }
-
-		    nodes[node].finishConnecting();
 		}
-		return nodes;
+		return graph;
 	}
 
-	private static int getLeftNode(int node, int dim) {
+	private int getLeftNode(int node, int dim) {
 
 	  int kToDim = (int) Math.pow(_k, dim);
 	  int posInDim = (node / kToDim) % _k;
@@ -61,7 +58,7 @@ public class Torus {
 	  return posInDim == 0 ? (node + (_k-1)*kToDim) : (node - kToDim);
 	}
 
-	private static int getRightNode(int node, int dim) {
+	private int getRightNode(int node, int dim) {
 
 	  int kToDim = (int) Math.pow(_k, dim);
 	  int posInDim = (node / kToDim) % _k;
@@ -33,7 +33,7 @@ public class Visualise {
         for(Router r : network.getRouters()) {
         	Set<RouterLink> outgoingLinks = r.outgoingLinks();
         	for(RouterLink l : outgoingLinks)
-        		s += "    "+r.getNodeId()+" -> "+l.getTo().getNodeId()+" [label = "+l.getId()+"];\n";
+        		s += "    "+r.getNodeId()+" -> "+l.getToId()+" [label = "+l.getId()+"];\n";
         }
         
         s += "}\n";
@@ -6,68 +6,203 @@
  */ 
 package sim.traffic;
 
+import java.util.Arrays;
+
 import sim.Config;
+import sim.SimConfig;
+import sim.SimulationContext;
 import sim.Simulator;
+import sim.SplitRandom;
 
+/*
+ * The injection processes make a random decision every cycle, but rather than 
+ * draw it every cycle each source samples the number of cycles until the next 
+ * success from a geometric distribution, which has the same distribution, and 
+ * keeps the cycle that it falls on. A processor then only compares that cycle 
+ * against the clock, and fast-forwarding can jump straight to it.
+ * 
+ * A source starts its process the first cycle it asks about it. For ONOFF the 
+ * next flip of its state is sampled in the same way, and the next injection 
+ * within each on period. A cycle is NEVER when a probability is zero.
+ * 
+ * A processor holds on to the injection process of its simulation, which keeps 
+ * the settings of the run and the random stream of each source from when it 
+ * was last reset.
+ */
 public class Injection {
 
-	private static int[] m_nodeStates;
+	private static final long NEVER = Long.MAX_VALUE / 4;
+	
+	private Config.InjProcess    m_type;
+	private int                  m_packetSize;
+	private SplitRandom[]        m_rands;
+	private int[]                m_nodeStates;
+	private long[]               m_nextFlip;
+	private long[]               m_nextInjection;
+	
+	// The log of the probability of failure of each decision, for the rate of the run
+	private double m_logInject;
+	private double m_logAlpha;
+	private double m_logBeta;
+	private double m_logOn;
 	
-	public static int getPacketLen(int source) {
-		switch(Config.injection()) {
-		case BERNOULLI: return Injection.bernoulli(source);
-		case ONOFF:     return Injection.onOff(source);
+	/*
+	 * The length of the packet a source starts this cycle, if it starts one
+	 */
+	public int getPacketLen(int source, long now) {
+		switch(m_type) {
+		case BERNOULLI: return bernoulli(source, now);
+		case ONOFF:     return onOff(source, now);
 		default:        return -1;
 		}
 	}
 	
+	/*
+	 * The earliest cycle that a source could next inject a packet
+	 */
+	public long nextInjectionCycle(int source, long now) {
+		long next;
+		switch(m_type) {
+		case BERNOULLI:
+			if(m_nextInjection[source] == -1)
+				m_nextInjection[source] = now + geometric(source, m_logInject);
+			next = m_nextInjection[source];
+			break;
+		case ONOFF:
+			next = nextOnOffInjection(source, now);
+			break;
+		default:
+			return Long.MAX_VALUE;
+		}
+		return next >= NEVER ? Long.MAX_VALUE : Math.max(next, now);
+	}
+	
 	/*
 	 * Bernoulli process, randomly inject packets according to the rate
 	 */
-	private static int bernoulli(int source) {
-		//return Config.packetSize();
-		return (Simulator.randDouble() < (Config.injectionRate() / 
-				(double)Config.packetSize())) ? Config.packetSize() : 0;
-		//return (Simulator.randDouble() < Config.injectionRate()) ? Config.packetSize() : 0;
+	private int bernoulli(int source, long now) {
+		long next = m_nextInjection[source];
+		if(next == -1)
+			next = m_nextInjection[source] = now + geometric(source, m_logInject);
+		if(next > now)
+			return 0;
+		m_nextInjection[source] = now + 1 + geometric(source, m_logInject);
+		return m_packetSize;
 	}
 
 	/*
-	 * Two-state Modulated Markov Process (MMP): either sending or not
+	 * Two-state Modulated Markov Process (MMP): either sending or not. Each cycle 
+	 * the state flips from off to on with probability alpha, or from on to off 
+	 * with beta, and when on a packet is then started with probability r1
 	 */
-	private static int onOff(int source) {
-
-		assert((source >= 0) && (source < Simulator.numNodes()));
-
-		if(m_nodeStates == null) {
-			m_nodeStates = new int [Simulator.numNodes()];
-		    for(int n = 0; n < m_nodeStates.length; n++)
-		    	m_nodeStates[n] = 0;
+	private int onOff(int source, long now) {
+		assert((source >= 0) && (source < m_nodeStates.length));
+		
+		if(m_nextFlip[source] == -1)
+			start(source, now);
+		advance(source, now);
+		
+		// generate packet
+		if(m_nodeStates[source] == 1 && m_nextInjection[source] <= now) {
+			m_nextInjection[source] = now + 1 + geometric(source, m_logOn);
+			return m_packetSize;
 		}
-
-		// advance state: off -> on OR on -> off
-		if(m_nodeStates[source] == 0) {
-			if(Simulator.randDouble() < Config.burstAlpha()) {
+		return 0;
+	}
+	
+	/*
+	 * Start a source off, with its first chance to flip on this cycle
+	 */
+	private void start(int source, long now) {
+		m_nodeStates[source] = 0;
+		m_nextFlip[source] = now + geometric(source, m_logAlpha);
+		m_nextInjection[source] = NEVER;
+	}
+	
+	/*
+	 * Make the flips of the state of a source up to a cycle. An on period starts 
+	 * with an injection decision in the cycle it flips on, and its first chance 
+	 * to flip off in the next, and an off period its first chance to flip on in 
+	 * the next
+	 */
+	private void advance(int source, long now) {
+		while(m_nextFlip[source] <= now) {
+			long flip = m_nextFlip[source];
+			if(m_nodeStates[source] == 0) {
 				m_nodeStates[source] = 1;
+				m_nextFlip[source] = flip + 1 + geometric(source, m_logBeta);
+				m_nextInjection[source] = flip + geometric(source, m_logOn);
+			} else {
+				m_nodeStates[source] = 0;
+				m_nextFlip[source] = flip + 1 + geometric(source, m_logAlpha);
+				m_nextInjection[source] = NEVER;
 			}
-		} else if (Simulator.randDouble() < Config.burstBeta()) {
-			m_nodeStates[source] = 0;
 		}
-
-		// generate packet
-		if(m_nodeStates[source] == 1) {
-			double r1 = (Config.injectionRate() * (1.0 + Config.burstBeta() / Config.burstAlpha())) 
-					/ (double)Config.packetSize();
-			if (Simulator.randDouble() < r1)
-				return Config.packetSize();
+	}
+	
+	/*
+	 * Make the flips of a source ahead of the clock until an on period with an 
+	 * injection in it. The samples are drawn in the same order as when a source 
+	 * is advanced a cycle at a time, so looking ahead doesn't change the results
+	 */
+	private long nextOnOffInjection(int source, long now) {
+		if(m_nextFlip[source] == -1)
+			start(source, now);
+		advance(source, now);
+		while(m_nodeStates[source] == 0 || m_nextInjection[source] >= m_nextFlip[source]) {
+			if(m_nextFlip[source] >= NEVER)
+				return NEVER;
+			advance(source, m_nextFlip[source]);
 		}
-
-		return 0;
+		return m_nextInjection[source];
+	}
+	
+	/*
+	 * The number of failures before the first success of a decision made every 
+	 * cycle, given the log of the probability of failure
+	 */
+	private long geometric(int source, double logFail) {
+		if(!(logFail < 0))
+			return NEVER;
+		double cycles = Math.floor(Math.log(1.0 - m_rands[source].nextDouble()) / logFail);
+		return cycles < NEVER ? (long) cycles : NEVER;
 	}
 	
+	private static double logFail(double p) {
+		if(p >= 1)
+			return Double.NEGATIVE_INFINITY;
+		return p > 0 ? Math.log1p(-p) : 0;
+	}
+	
+	/*
+	 * Allocate the node states up front, as nodes may be updated concurrently, 
+	 * and take the probabilities of the run
+	 */
 	public static void reset() {
-		if(m_nodeStates != null) {
-		    for(int n = 0; n < m_nodeStates.length; n++)
-		    	m_nodeStates[n] = 0;
+		Injection injection = current();
+		int numNodes = Simulator.numNodes();
+		if(injection.m_nodeStates == null || injection.m_nodeStates.length != numNodes) {
+			injection.m_rands = new SplitRandom[numNodes];
+			injection.m_nodeStates = new int[numNodes];
+			injection.m_nextFlip = new long[numNodes];
+			injection.m_nextInjection = new long[numNodes];
 		}
+		for(int i=0; i<numNodes; i++)
+			injection.m_rands[i] = Simulator.nodeRandom(i);
+		Arrays.fill(injection.m_nodeStates, 0);
+		Arrays.fill(injection.m_nextFlip, -1);
+		Arrays.fill(injection.m_nextInjection, -1);
+		
+		SimConfig config = Config.snapshot();
+		injection.m_type = config.injection;
+		injection.m_packetSize = config.packetSize;
+		double r1 = (config.injectionRate * (1.0 + config.burstBeta / config.burstAlpha)) 
+				/ (double)config.packetSize;
+		injection.m_logInject = logFail(config.injectionRate / (double)config.packetSize);
+		injection.m_logAlpha  = logFail(config.burstAlpha);
+		injection.m_logBeta   = logFail(config.burstBeta);
+		injection.m_logOn     = logFail(r1);
 	}
+	
+	private static Injection current() { return SimulationContext.current().injection(); }
 }
@@ -9,38 +9,118 @@ package sim.traffic;
 import java.util.Random;
 
 import sim.Config;
+import sim.SimConfig;
+import sim.SimulationContext;
 import sim.Simulator;
-import sim.Utilities;
+import sim.SplitRandom;
 
+/*
+ * A deterministic traffic pattern is compiled into a table of the destination 
+ * of each source when the traffic is reset, and any requirement it has of the 
+ * size of the network checked then. A random pattern gives each source a sampler 
+ * that draws its destinations from the random stream of that source. Either way 
+ * a destination is then found without looking at the configuration.
+ */
 public class Traffic {
 
-	private static int[] m_perm;
+	private int[]     m_perm;
+	private int[]     m_dests;
+	private Sampler[] m_samplers;
 	
-	public static int getDest(int source, int totalNodes) {
+	/*
+	 * Draws the destinations of one source for a random pattern
+	 */
+	private static abstract class Sampler {
+		protected final SplitRandom m_rand;
+		protected final int         m_source;
+		protected final int         m_numNodes;
 		
-		/*switch(source) {
-		case 0: return 3;
-		case 3: return 0;
-		case 2: return 1;
-		case 1: return 2;
+		Sampler(int source, int numNodes) {
+			m_rand     = Simulator.nodeRandom(source);
+			m_source   = source;
+			m_numNodes = numNodes;
+		}
+		
+		abstract int next();
+	}
+	
+	/*
+	 * Called on the traffic a processor took from its simulation when it was built
+	 */
+	public int getDest(int source) {
+		if(m_dests != null)
+			return m_dests[source];
+		if(m_samplers != null)
+			return m_samplers[source].next();
+		return -1;
+	}
+	
+	/*
+	 * The table of destinations of a deterministic pattern, or null for a random 
+	 * one. A pattern the network can't have exits with an error
+	 */
+	private static int[] compile(SimConfig config, int numNodes) {
+		int lg = Integer.numberOfTrailingZeros(numNodes);
+		boolean pow2 = Integer.bitCount(numNodes) == 1;
+		
+		switch(config.traffic) {
+		case BITCOMP:
+		case BITREV:
+		case SHUFFLE:
+			if(!pow2)
+				exit("The '"+config.traffic.toString().toLowerCase()+
+						"' traffic pattern requires # nodes to be a power of two!");
+			break;
+		case TRANSPOSE:
+			if(!pow2 || (lg & 0x1) > 0)
+				exit("The 'transpose' traffic pattern requires # nodes to be an even power of two!");
+			break;
+		case TORNADO:
+		case NEIGHBOUR:
+		case RANDPERM:
+			break;
 		default:
-			System.err.println("no source!");
-			return -1;
-		}*/
+			return null;
+		}
+		
+		if(config.traffic == Config.TrafficType.RANDPERM) {
+			GenerateRandomPerm();
+			return current().m_perm;
+		}
 		
-		switch(Config.traffic()) {
-		case UNIFORM:    return Traffic.uniform(source);
-		case BITCOMP:    return Traffic.bitcomp(source);
-		case BITREV:     return Traffic.bitrev(source);
-		case TRANSPOSE:  return Traffic.transpose(source);
-		case SHUFFLE:    return Traffic.shuffle(source);
-		case TORNADO:    return Traffic.tornado(source);
-		case NEIGHBOUR:  return Traffic.neighbour(source);
-		case RANDPERM:   return Traffic.randperm(source);
-		case DIAGONAL:   return Traffic.diagonal(source);
-		case ASYMMETRIC: return Traffic.asymmetric(source);
-		default:         return -1;
+		int[] dests = new int[numNodes];
+		for(int source=0; source<numNodes; source++) {
+			switch(config.traffic) {
+			case BITCOMP:   dests[source] = bitcomp(source, numNodes);        break;
+			case BITREV:    dests[source] = bitrev(source, lg);               break;
+			case TRANSPOSE: dests[source] = transpose(source, lg);            break;
+			case SHUFFLE:   dests[source] = shuffle(source, lg, numNodes);    break;
+			case TORNADO:   dests[source] = tornado(config, source);          break;
+			default:        dests[source] = neighbour(config, source);
+			}
+		}
+		return dests;
+	}
+	
+	/*
+	 * A sampler for each source of a random pattern
+	 */
+	private static Sampler[] samplers(SimConfig config, int numNodes) {
+		Sampler[] samplers = new Sampler[numNodes];
+		for(int source=0; source<numNodes; source++) {
+			switch(config.traffic) {
+			case UNIFORM:    samplers[source] = new Uniform(source, numNodes);    break;
+			case DIAGONAL:   samplers[source] = new Diagonal(source, numNodes);   break;
+			case ASYMMETRIC: samplers[source] = new Asymmetric(source, numNodes); break;
+			default:         return null;
+			}
 		}
+		return samplers;
+	}
+	
+	private static void exit(String message) {
+		System.err.println("Error: "+message);
+		System.exit(1);
 	}
 	
 	public static void srcDestBin(int source, int dest, int lg) {
@@ -56,68 +136,33 @@ public class Traffic {
 		System.out.println();
 	}
 
-	private static int uniform( int source) {
-		// NOTE: dont want a node to send its self something
-		return Simulator.getRandInt(Simulator.numNodes() - 1);
+	private static int bitcomp(int source, int numNodes) {
+		return (~source) & (numNodes - 1);
 	}
 
-	private static int bitcomp(int source) {
-		int lg   = (int) Utilities.log2(Simulator.numNodes());
-		int mask = Simulator.numNodes() - 1;
-
-		if(( 1 << lg) != Simulator.numNodes()) {
-			System.err.println("Error: The 'bitcomp' traffic pattern requires # nodes to be a power of two!");
-			return -1;
-		}
-
-		return (~source) & mask;
-	}
-
-	private static int transpose(int source) {
-		int lg      = (int) Utilities.log2(Simulator.numNodes());
+	private static int transpose(int source, int lg) {
 		int mask_lo = (1 << (lg/2)) - 1;
 		int mask_hi = mask_lo << (lg/2);
-
-		if(((1 << lg) != Simulator.numNodes()) || ((lg & 0x1) > 0)) {
-			System.err.println("Error: The 'transpose' traffic pattern requires # nodes to be an even power of two!");
-			return -1;
-		}
-
 		return ((source >> (lg/2)) & mask_lo) | ((source << (lg/2)) & mask_hi);
 	}
 
-	private static int bitrev(int source) {
-		int lg = (int) Utilities.log2(Simulator.numNodes());
-
-		if ((1 << lg) != Simulator.numNodes()) {
-		  	System.err.println("Error: The 'bitrev' traffic pattern requires # nodes to be a power of two!");
-		  	return -1;
-		}
-
-		// If you were fancy you could do this in O(log log total_nodes) instructions, but I'm not
+	private static int bitrev(int source, int lg) {
 		int dest = 0;
 		for (int b = 0; b < lg; b++)
 			dest |= ((source >> b) & 0x1) << (lg - b - 1);
 		return dest;
 	}
 
-	private static int shuffle(int source) {
-		int lg = (int) Utilities.log2(Simulator.numNodes());
-
-		if ( ( 1 << lg ) != Simulator.numNodes()) {
-			System.err.println("Error: The 'shuffle' traffic pattern requires # nodes to be a power of two!");
-			return -1;
-		}
-
-		return ((source << 1) & (Simulator.numNodes() - 1)) | ((source >> (lg - 1)) & 0x1);
+	private static int shuffle(int source, int lg, int numNodes) {
+		return ((source << 1) & (numNodes - 1)) | ((source >> (lg - 1)) & 0x1);
 	}
 
-	private static int tornado(int source) {
+	private static int tornado(SimConfig config, int source) {
 		int offset = 1;
 		int dest = 0;
-	  	int k = Config.k();
+	  	int k = config.k;
 
-	  	for(int n = 0; n < Config.n(); n++) {
+	  	for(int n = 0; n < config.n; n++) {
 	  		dest += offset * (((source / offset) % k + (k/2 - 1)) % k);
 	  		offset *= 2;
 	  	}
@@ -125,12 +170,12 @@ public class Traffic {
 	  	return dest;
 	}
 
-	private static int neighbour(int source) {
+	private static int neighbour(SimConfig config, int source) {
 		int offset = 1;
 		int dest = 0;
-		int k = Config.k();
+		int k = config.k;
 	  
-		for ( int n = 0; n < Config.n(); ++n ) {
+		for ( int n = 0; n < config.n; ++n ) {
 			dest += offset * (((source / offset) % k + 1) % k);
 			offset *= k;
 		}
@@ -139,22 +184,23 @@ public class Traffic {
 	}
 
 	private static void GenerateRandomPerm() {
+		Traffic traffic = current();
 		Random rand = new Random(Config.permSeed());
 
-		if(m_perm == null)
-			m_perm = new int [Simulator.numNodes()];
+		if(traffic.m_perm == null)
+			traffic.m_perm = new int [Simulator.numNodes()];
 
-		for (int i = 0; i < m_perm.length; i++)
-			m_perm[i] = -1;
+		for (int i = 0; i < traffic.m_perm.length; i++)
+			traffic.m_perm[i] = -1;
 
-		for(int i = 0; i < m_perm.length; i++) {
+		for(int i = 0; i < traffic.m_perm.length; i++) {
 			
 			int index = rand.nextInt(Simulator.numNodes() - i);
 			int j = 0;
 			int count = 0;
 			
-			while((count < index) || ( m_perm[j] != -1)) {
-				if (m_perm[j] == -1)
+			while((count < index) || ( traffic.m_perm[j] != -1)) {
+				if (traffic.m_perm[j] == -1)
 					count++;
 				j++;
 
@@ -163,32 +209,45 @@ public class Traffic {
 		    		return;
 		    	}
 			}
-			m_perm[j] = i;
+			traffic.m_perm[j] = i;
 		}
 	}
 
-	private static int randperm( int source) {
-		if(m_perm == null)
-			GenerateRandomPerm();
-		return m_perm[source];
+	private static class Uniform extends Sampler {
+		Uniform(int source, int numNodes) { super(source, numNodes); }
+		
+		// NOTE: dont want a node to send its self something
+		int next() { return m_rand.nextInt(m_numNodes - 1); }
 	}
 
 	/*
 	 * 2/3 of traffic goes from source->source
 	 * 1/3 of traffic goes from source->(source+1)%total_nodes
 	 */
-	private static int diagonal(int source) {
-		return Simulator.getRandInt(2)==0 ? ( source + 1 ) % Simulator.numNodes() : source;
+	private static class Diagonal extends Sampler {
+		Diagonal(int source, int numNodes) { super(source, numNodes); }
+		
+		int next() { return m_rand.nextInt(2)==0 ? ( m_source + 1 ) % m_numNodes : m_source; }
 	}
 
-	private static int asymmetric(int source) {
-		int half = Simulator.numNodes() / 2;
+	private static class Asymmetric extends Sampler {
+		Asymmetric(int source, int numNodes) { super(source, numNodes); }
+		
 		// This doesn't make sense...
-		int d = ( source % half ) + Simulator.getRandInt(1) * half;
-		return d;
+		int next() { return ( m_source % (m_numNodes / 2) ) + m_rand.nextInt(1) * (m_numNodes / 2); }
 	}
 	
+	/*
+	 * Build the destinations up front, as nodes may be updated concurrently
+	 */
 	public static void reset() {
-		m_perm = null;
+		Traffic traffic = current();
+		SimConfig config = Config.snapshot();
+		int numNodes = Simulator.numNodes();
+		traffic.m_perm = null;
+		traffic.m_dests = compile(config, numNodes);
+		traffic.m_samplers = traffic.m_dests == null ? samplers(config, numNodes) : null;
 	}
+	
+	private static Traffic current() { return SimulationContext.current().traffic(); }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Check that every engine gives the same statistics as the serial engine for one
+ * run mode configuration: [configuration.cfg] [engines...]. Each engine is run in
+ * a simulator of its own, as the distributed engine starts other processes, and
+ * the whole [STATS] block it reports must be the same as the serial one, or the
+ * check stops at the first engine that differs.
+ */
+public class EngineCheck {
+
+	private static final String CONFIG = "test/sim/engines.cfg";
+
+	private static final String[] ENGINES =
+		{ "serial", "parallel", "pdes", "stealing", "compiled", "distributed" };
+
+	public static void main(String[] args) {
+		String config = args.length > 0 ? args[0] : CONFIG;
+		String[] engines = ENGINES;
+		if(args.length > 1) {
+			engines = new String[args.length - 1];
+			System.arraycopy(args, 1, engines, 0, engines.length);
+		}
+
+		String expected = null;
+		for(String engine : engines) {
+			String stats = runStats(config, engine);
+			if(stats == null) {
+				System.err.println("Error: the "+engine+" engine reported no statistics");
+				System.exit(1);
+			}
+			if(expected == null) {
+				expected = stats;
+			} else if(!stats.equals(expected)) {
+				System.err.println("Error: the "+engine+" engine differs from the "+engines[0]+" engine");
+				System.err.println("  expected\n"+expected);
+				System.err.println("  got\n"+stats);
+				System.exit(1);
+			}
+			System.out.println("Checked the "+engine+" engine");
+		}
+		System.out.println("Checked "+engines.length+" engines with "+config);
+		System.exit(0);
+	}
+
+	/*
+	 * Run a simulation with an engine and return the [STATS] block it reports, or
+	 * null if there was none
+	 */
+	private static String runStats(String config, String engine) {
+		List<String> command = new LinkedList<String>();
+		command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("sim.Main");
+		command.add(config);
+		command.add("engine="+engine);
+
+		String stats = null;
+		try {
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			String line;
+			String block = null;
+			while((line = in.readLine()) != null) {
+				if(line.startsWith("[STATS]"))
+					block = "";
+				if(block != null) {
+					block += line+"\n";
+					if(line.startsWith("---")) {
+						stats = block;
+						block = null;
+					}
+				}
+			}
+			if(process.waitFor() != 0) {
+				System.err.println("Error: the "+engine+" engine exited with "+process.exitValue());
+				System.exit(1);
+			}
+		} catch(IOException e) {
+			System.err.println("Error: could not run the "+engine+" engine: "+e.getMessage());
+			System.exit(1);
+		} catch(InterruptedException e) {
+			System.err.println("Error: interrupted running the "+engine+" engine");
+			System.exit(1);
+		}
+		return stats;
+	}
+}
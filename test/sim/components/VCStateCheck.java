@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+/*
+ * Check the packed VC state stack against the StateStack of VirtualChannel that
+ * it replaced, for random sequences of the transitions a VC makes: [sequences] 
+ * [length] [seed]. After each transition the top state and the whole stack must
+ * be the same, or the check stops at the first difference. 
+ * 
+ * A sequence is kept within the states a long can hold. The old stack could be
+ * popped below its IDLE, after which reading its state threw, so a sequence 
+ * ends there; the number that did is reported.
+ */
+public class VCStateCheck {
+	
+	private static final int CAPACITY = 32;
+	
+	private static final String[] OPS = 
+		{ "incCredits", "decCredits", "setActive", "setWaitingVC", "push", "pop" };
+	
+	/*
+	 * The state stack and transitions of VirtualChannel before VCState, as they 
+	 * were. Only the console, and the buffer size read from Config, are left out
+	 */
+	private static abstract class VirtualChannel {
+		
+		private enum VCState { IDLE, ACTIVE, WAIT_C, WAIT_VC };
+		
+		private StateStack m_state;
+		private int        m_credits;
+		
+		private class StateStack {
+			private LinkedList<VCState> m_stack;
+
+			public StateStack() {
+				m_stack = new LinkedList<VCState>();
+				m_stack.push(VCState.IDLE);
+			}
+			
+			public void reset() {
+				m_stack.clear();
+				m_stack.push(VCState.IDLE);
+			}
+			
+			public String toString() {
+				String s = "";
+				for(VCState vcs : m_stack)
+					s += vcs.name()+" ";
+				return s;
+			}
+
+		   	public void    push(VCState s) { m_stack.addFirst(s); }  
+		    public VCState pop()           { return m_stack.pollFirst(); }
+		    public VCState peek()          { return m_stack.peekFirst(); }
+		}
+		
+		public VirtualChannel() {
+			m_state = new StateStack();
+			m_credits = BUFFER_SIZE;
+		}
+
+		public int incCredits() {
+			if(isWaitingCdt())
+				m_state.pop();
+			
+			// bit of a hack...
+			if(hasFlit() && isIdle())
+				setActive();
+
+			return m_credits++;
+		}
+		
+		public int decCredits() {
+			if(getCredits() == 1)
+				m_state.push(VCState.WAIT_C);
+			return m_credits--;
+		}
+		
+		public void resetVCState() {
+			m_state.reset();
+			m_credits = BUFFER_SIZE;
+		}
+		
+		public abstract boolean hasFlit();
+		
+		public String  getStateStr()           { return m_state.peek().name(); }
+		public void    popState()              { m_state.pop(); }
+		public void    setActive()             { if(!isActive()) m_state.push(VCState.ACTIVE); }
+		public void    setWaitingVC()          { if(!isWaitingVC()) m_state.push(VCState.WAIT_VC); }
+		public boolean isIdle()                { return m_state.peek().equals(VCState.IDLE); }
+		public boolean isActive()              { return m_state.peek().equals(VCState.ACTIVE); }
+		public boolean isWaitingCdt()          { return m_state.peek().equals(VCState.WAIT_C); }
+		public boolean isWaitingVC()           { return m_state.peek().equals(VCState.WAIT_VC); }
+		public int     getCredits()            { return m_credits; }
+		public boolean hasFullCredits()        { return m_credits == BUFFER_SIZE; }
+		public String  getStateStack()         { return m_state+""; }
+	}
+	
+	private static final int BUFFER_SIZE = 3;
+	
+	/*
+	 * The old VC, with the flit and credits it holds set by each transition, and
+	 * push for any state
+	 */
+	private static class OldVC extends VirtualChannel {
+		private boolean m_hasFlit;
+		
+		public boolean hasFlit() { return m_hasFlit; }
+		
+		public void incCredits(boolean hasFlit) {
+			m_hasFlit = hasFlit;
+			incCredits();
+		}
+		
+		public void decCredits(int credits) {
+			super.m_credits = credits;
+			decCredits();
+		}
+		
+		public void    push(int state) { super.m_state.push(VirtualChannel.VCState.values()[state]); }
+		public int     depth()         { return super.m_state.m_stack.size() - 1; }
+		public boolean isEmpty()       { return super.m_state.m_stack.isEmpty(); }
+	}
+	
+	public static void main(String[] args) {
+		int sequences = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int length = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+		Random rand = new Random(seed);
+		int poppedIdle = 0;
+		
+		for(int i=0; i<sequences; i++) {
+			OldVC old = new OldVC();
+			long stack = VCState.EMPTY;
+			String trace = "";
+			
+			for(int step=0; step<length; step++) {
+				int op = rand.nextInt(OPS.length);
+				boolean hasFlit = rand.nextBoolean();
+				int credits = 1 + rand.nextInt(3);
+				int state = 1 + rand.nextInt(3);
+				
+				// Only pop once the stack is full
+				if(old.depth() == CAPACITY)
+					op = 5;
+				
+				switch(op) {
+				case 0:
+					old.incCredits(hasFlit);
+					stack = VCState.incCredits(stack, hasFlit);
+					trace += OPS[op]+"("+hasFlit+") ";
+					break;
+				case 1:
+					old.decCredits(credits);
+					stack = VCState.decCredits(stack, credits);
+					trace += OPS[op]+"("+credits+") ";
+					break;
+				case 2:
+					old.setActive();
+					stack = VCState.setActive(stack);
+					trace += OPS[op]+" ";
+					break;
+				case 3:
+					old.setWaitingVC();
+					stack = VCState.setWaitingVC(stack);
+					trace += OPS[op]+" ";
+					break;
+				case 4:
+					old.push(state);
+					stack = VCState.push(stack, state);
+					trace += OPS[op]+"("+VCState.name(state)+") ";
+					break;
+				default:
+					old.popState();
+					stack = VCState.pop(stack);
+					trace += OPS[op]+" ";
+					break;
+				}
+				
+				if(old.isEmpty()) {
+					poppedIdle++;
+					break;
+				}
+				
+				if(!VCState.name(stack).equals(old.getStateStr()) || 
+						!VCState.toString(stack).equals(old.getStateStack())) {
+					System.err.println("Error: sequence "+i+" differs after step "+step+": "+trace);
+					System.err.println("  expected "+old.getStateStack());
+					System.err.println("  got      "+VCState.toString(stack));
+					System.exit(1);
+				}
+			}
+		}
+		
+		System.out.println("Checked "+sequences+" sequences of up to "+length+" transitions with seed "+
+				seed+", "+poppedIdle+" ended by popping the IDLE");
+		System.exit(0);
+	}
+}